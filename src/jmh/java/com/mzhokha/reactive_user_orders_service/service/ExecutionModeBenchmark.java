@@ -0,0 +1,229 @@
+package com.mzhokha.reactive_user_orders_service.service;
+
+import ch.qos.logback.classic.Level;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mzhokha.reactive_user_orders_service.external.client.BlockingOrderSearchServiceClient;
+import com.mzhokha.reactive_user_orders_service.external.client.BlockingProductInfoServiceClient;
+import com.mzhokha.reactive_user_orders_service.external.client.OrderSearchServiceClient;
+import com.mzhokha.reactive_user_orders_service.external.client.ProductInfoServiceClient;
+import com.mzhokha.reactive_user_orders_service.model.User;
+import com.mzhokha.reactive_user_orders_service.response.UserOrder;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+    Reactive vs virtual-threads execution mode against the same local upstream stub with fixed latencies.
+
+    burst: one op = `inFlight` concurrent getOrdersByUserId calls for different users, all drained.
+    Throughput and SampleTime modes give ops/s and the latency distribution of a burst.
+
+    retainedHeap: memory per in-flight request. Starts the same `inFlight` calls, holds every product-info
+    response in the stub until all of them arrived, then reports used heap after GC minus used heap before the calls,
+    divided by inFlight, as the retainedHeap:bytesPerRequest counter. Its time score means nothing.
+    The stub runs in the same JVM, so its share of a held request is included, equally in both modes.
+    Product cache, concurrency limiter and circuit breaker are off in both modes, so every order costs one upstream call.
+    Reactive connection pools are sized for the burst, JDK HttpClient has no connection limit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ExecutionModeBenchmark {
+
+    @Param({"reactive", "virtual-threads"})
+    private String mode;
+
+    @Param({"100", "1000"})
+    private int inFlight;
+
+    @Param({"10"})
+    private int ordersPerUser;
+
+    @Param({"20"})
+    private int orderSearchLatencyMillis;
+
+    @Param({"10"})
+    private int productInfoLatencyMillis;
+
+    private DisposableServer upstreamStub;
+
+    private BiFunction<String, Integer, Flux<UserOrder>> getOrdersByUserId;
+
+    private BlockingProductInfoServiceClient blockingProductInfoServiceClient;
+
+    private UserOrdersService userOrdersService;
+
+    private OrderSearchServiceClient orderSearchServiceClient;
+
+    // product-info responses wait for it while retainedHeap measures, null otherwise
+    private volatile Sinks.Empty<Void> productInfoHold;
+
+    private final AtomicInteger heldProductLookups = new AtomicInteger();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class RetainedHeap {
+        public long bytesPerRequest;
+    }
+
+    private ProductInfoServiceClient productInfoServiceClient;
+
+    @Setup
+    public void setUp() throws Exception {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("com.mzhokha.reactive_user_orders_service")).setLevel(Level.WARN);
+
+        this.upstreamStub = startUpstreamStub();
+        var baseUrl = "http://localhost:" + this.upstreamStub.port();
+
+        var users = new HashMap<String, User>();
+        for (int i = 0; i < this.inFlight; i++) {
+            users.put("user" + i, new User("user" + i, "User " + i, String.valueOf(100_000_000 + i)));
+        }
+        var userRepository = UserOrdersPipelineBenchmark.inMemoryUserRepository(users);
+        var meterRegistry = new SimpleMeterRegistry();
+
+        if ("reactive".equals(this.mode)) {
+            this.orderSearchServiceClient = new OrderSearchServiceClient();
+            this.orderSearchServiceClient.setOrderSearchServiceBaseUrl(baseUrl);
+            this.orderSearchServiceClient.setConcurrencyLimitEnabled(false);
+            this.orderSearchServiceClient.setCircuitBreakerEnabled(false);
+            this.orderSearchServiceClient.setPoolMaxConnections(this.inFlight);
+            this.orderSearchServiceClient.setPoolPendingAcquireMaxCount(-1);
+            this.orderSearchServiceClient.afterPropertiesSet();
+
+            this.productInfoServiceClient = new ProductInfoServiceClient();
+            this.productInfoServiceClient.setProductInfoServiceBaseUrl(baseUrl);
+            this.productInfoServiceClient.setCacheEnabled(false);
+            this.productInfoServiceClient.setConcurrencyLimitEnabled(false);
+            this.productInfoServiceClient.setCircuitBreakerEnabled(false);
+            this.productInfoServiceClient.setPoolMaxConnections(this.inFlight * this.ordersPerUser);
+            this.productInfoServiceClient.setPoolPendingAcquireMaxCount(-1);
+            this.productInfoServiceClient.afterPropertiesSet();
+
+            var service = new UserOrdersService(userRepository, this.orderSearchServiceClient, this.productInfoServiceClient, meterRegistry);
+            service.setRequestCollapsingEnabled(false);
+            service.setReductionThreads(0);
+            service.setReductionFair(true);
+            service.setResponseCacheEnabled(false);
+            service.afterPropertiesSet();
+            this.userOrdersService = service;
+            this.getOrdersByUserId = service::getOrdersByUserId;
+        } else {
+            var objectMapper = new ObjectMapper();
+            var orderSearchServiceClient = new BlockingOrderSearchServiceClient(objectMapper);
+            orderSearchServiceClient.setOrderSearchServiceBaseUrl(baseUrl);
+            orderSearchServiceClient.afterPropertiesSet();
+
+            this.blockingProductInfoServiceClient = new BlockingProductInfoServiceClient(objectMapper);
+            this.blockingProductInfoServiceClient.setProductInfoServiceBaseUrl(baseUrl);
+            this.blockingProductInfoServiceClient.setCacheEnabled(false);
+            this.blockingProductInfoServiceClient.afterPropertiesSet();
+
+            var service = new VirtualThreadUserOrdersService(userRepository, orderSearchServiceClient, this.blockingProductInfoServiceClient, meterRegistry);
+            this.getOrdersByUserId = service::getOrdersByUserId;
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (this.orderSearchServiceClient != null) {
+            this.userOrdersService.destroy();
+            this.orderSearchServiceClient.destroy();
+            this.productInfoServiceClient.destroy();
+        }
+        if (this.blockingProductInfoServiceClient != null) {
+            this.blockingProductInfoServiceClient.destroy();
+        }
+        this.upstreamStub.disposeNow();
+    }
+
+    @Benchmark
+    public Long burst() {
+        return Flux.range(0, this.inFlight)
+                .flatMap(i -> this.getOrdersByUserId.apply("user" + i, null).count(), this.inFlight)
+                .reduce(0L, Long::sum)
+                .block();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    public Long retainedHeap(RetainedHeap retainedHeap) throws InterruptedException {
+        long usedBefore = usedHeapAfterGc();
+        var hold = Sinks.<Void>empty();
+        this.heldProductLookups.set(0);
+        this.productInfoHold = hold;
+
+        var userOrderCount = Flux.range(0, this.inFlight)
+                .flatMap(i -> this.getOrdersByUserId.apply("user" + i, null).count(), this.inFlight)
+                .reduce(0L, Long::sum)
+                .toFuture();
+        while (this.heldProductLookups.get() < this.inFlight * this.ordersPerUser) {
+            Thread.sleep(1);
+        }
+        retainedHeap.bytesPerRequest = (usedHeapAfterGc() - usedBefore) / this.inFlight;
+
+        this.productInfoHold = null;
+        hold.tryEmitEmpty();
+        return userOrderCount.join();
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private DisposableServer startUpstreamStub() {
+        var orderSearchLatency = Duration.ofMillis(this.orderSearchLatencyMillis);
+        var productInfoLatency = Duration.ofMillis(this.productInfoLatencyMillis);
+        var products = IntStream.range(0, 50)
+                .mapToObj(i -> "{\"productId\":\"" + i + "\",\"productCode\":\"3852\",\"productName\":\"Product " + i + "\",\"score\":" + (i * 31.7 % 100) + "}")
+                .collect(Collectors.joining(",", "[", "]"));
+
+        return HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .get("/orderSearchService/order/phone", (request, response) -> {
+                            var phoneNumber = new QueryStringDecoder(request.uri()).parameters().get("phoneNumber").get(0);
+                            var orders = IntStream.range(0, this.ordersPerUser)
+                                    .mapToObj(i -> "{\"phoneNumber\":\"" + phoneNumber + "\",\"orderNumber\":\"Order_" + i + "\",\"productCode\":\"" + (1000 + i) + "\"}\n")
+                                    .toList();
+                            return response.header(HttpHeaderNames.CONTENT_TYPE, "application/x-ndjson")
+                                    .sendString(Mono.delay(orderSearchLatency).thenMany(Flux.fromIterable(orders)));
+                        })
+                        .get("/productInfoService/product/names", (request, response) -> {
+                            var hold = this.productInfoHold;
+                            var released = hold == null
+                                    ? Mono.<Void>empty()
+                                    : hold.asMono().doOnSubscribe(subscription -> this.heldProductLookups.incrementAndGet());
+                            return response.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                                    .sendString(Mono.delay(productInfoLatency).then(released).thenReturn(products));
+                        }))
+                .bindNow();
+    }
+}
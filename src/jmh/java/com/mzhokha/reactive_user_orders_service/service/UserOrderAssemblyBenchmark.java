@@ -0,0 +1,64 @@
+package com.mzhokha.reactive_user_orders_service.service;
+
+import com.mzhokha.reactive_user_orders_service.external.model.Order;
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import com.mzhokha.reactive_user_orders_service.model.User;
+import com.mzhokha.reactive_user_orders_service.response.UserOrder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.List;
+
+/*
+    Building UserOrder from the intermediate records, the way getOrdersOfUser does it for every order.
+    Kept in the service package because the records are package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class UserOrderAssemblyBenchmark {
+
+    private User user;
+
+    private Order order;
+
+    private List<Product> bestProduct;
+
+    private List<Product> topProducts;
+
+    @Setup
+    public void setUp() {
+        this.user = new User("user1", "Alex", "123123123");
+        this.order = new Order("123123123", "Order_0", "3852");
+        this.bestProduct = List.of(new Product("222", "3852", "IPhone", 1568.0));
+        this.topProducts = List.of(
+                new Product("222", "3852", "IPhone", 1568.0),
+                new Product("111", "3852", "Samsung", 1200.0),
+                new Product("333", "3852", "Pixel", 980.5));
+    }
+
+    @Benchmark
+    public UserOrder bestProduct() {
+        var userAndOrder = new UserOrdersService.UserAndOrder(this.user, this.order);
+        var userAndOrderAndProducts = new UserOrdersService.UserAndOrderAndProducts(userAndOrder.user(), userAndOrder.order(), this.bestProduct);
+        return UserOrdersService.toUserOrder(userAndOrderAndProducts, null);
+    }
+
+    @Benchmark
+    public UserOrder topProducts() {
+        var userAndOrder = new UserOrdersService.UserAndOrder(this.user, this.order);
+        var userAndOrderAndProducts = new UserOrdersService.UserAndOrderAndProducts(userAndOrder.user(), userAndOrder.order(), this.topProducts);
+        return UserOrdersService.toUserOrder(userAndOrderAndProducts, this.topProducts.size());
+    }
+
+    @Benchmark
+    public UserOrder noProduct() {
+        var userAndOrder = new UserOrdersService.UserAndOrder(this.user, this.order);
+        var userAndOrderAndProducts = new UserOrdersService.UserAndOrderAndProducts(userAndOrder.user(), userAndOrder.order(), Collections.emptyList());
+        return UserOrdersService.toUserOrder(userAndOrderAndProducts, null);
+    }
+}
@@ -0,0 +1,145 @@
+package com.mzhokha.reactive_user_orders_service.service;
+
+import ch.qos.logback.classic.Level;
+import com.mzhokha.reactive_user_orders_service.external.client.OrderSearchServiceClient;
+import com.mzhokha.reactive_user_orders_service.external.client.ProductInfoServiceClient;
+import com.mzhokha.reactive_user_orders_service.external.model.Order;
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import com.mzhokha.reactive_user_orders_service.model.User;
+import com.mzhokha.reactive_user_orders_service.model.UserRepository;
+import com.mzhokha.reactive_user_orders_service.response.UserOrder;
+import com.mzhokha.reactive_user_orders_service.util.ProductRanking;
+import com.mzhokha.reactive_user_orders_service.util.TopProducts;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/*
+    Full getOrdersByUserId Flux pipeline with in-memory clients and repository, no network and no Mongo.
+    Measures the operators, scheduler hops, stage timers and reduction, one op = one user with all their orders.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class UserOrdersPipelineBenchmark {
+
+    @Param({"1", "10", "100"})
+    private int orderCount;
+
+    @Param({"10", "1000"})
+    private int productCount;
+
+    private UserOrdersService userOrdersService;
+
+    @Setup
+    public void setUp() {
+        // service logs every request at INFO, console output would be the only thing measured
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger("com.mzhokha.reactive_user_orders_service")).setLevel(Level.WARN);
+
+        var user = new User("user1", "Alex", "123123123");
+
+        var orders = new ArrayList<Order>(this.orderCount);
+        for (int i = 0; i < this.orderCount; i++) {
+            orders.add(new Order(user.phone(), "Order_" + i, String.valueOf(i)));
+        }
+
+        var random = new SplittableRandom(42);
+        var products = new ArrayList<Product>(this.productCount);
+        for (int i = 0; i < this.productCount; i++) {
+            products.add(new Product(String.valueOf(i), "0", "Product " + i, random.nextDouble(0, 100_000)));
+        }
+
+        this.userOrdersService = new UserOrdersService(
+                inMemoryUserRepository(Map.of(user.id(), user)),
+                new InMemoryOrderSearchServiceClient(orders),
+                new InMemoryProductInfoServiceClient(products),
+                new SimpleMeterRegistry());
+        // reduction on its own scheduler like in the application, 0 - one thread per available processor
+        this.userOrdersService.setReductionThreads(0);
+        this.userOrdersService.setReductionFair(true);
+        this.userOrdersService.setResponseCacheEnabled(false);
+        this.userOrdersService.afterPropertiesSet();
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.userOrdersService.destroy();
+    }
+
+    @Benchmark
+    public List<UserOrder> bestProduct() {
+        return this.userOrdersService.getOrdersByUserId("user1").collectList().block();
+    }
+
+    @Benchmark
+    public List<UserOrder> top5Products() {
+        return this.userOrdersService.getOrdersByUserId("user1", 5).collectList().block();
+    }
+
+    // only findNameAndPhoneById is used by the service
+    static UserRepository inMemoryUserRepository(Map<String, User> users) {
+        return (UserRepository) Proxy.newProxyInstance(
+                UserRepository.class.getClassLoader(),
+                new Class<?>[]{UserRepository.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "findNameAndPhoneById" -> Mono.justOrEmpty(users.get((String) args[0]));
+                    case "toString" -> "InMemoryUserRepository";
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+
+    static class InMemoryOrderSearchServiceClient extends OrderSearchServiceClient {
+
+        private final List<Order> orders;
+
+        InMemoryOrderSearchServiceClient(List<Order> orders) {
+            this.orders = orders;
+        }
+
+        @Override
+        public Flux<Order> getOrdersByPhoneNumber(String phoneNumber) {
+            return Flux.fromIterable(this.orders);
+        }
+    }
+
+    // every product code has the same list of products, reduced on each call on reductionScheduler like in uncached mode
+    static class InMemoryProductInfoServiceClient extends ProductInfoServiceClient {
+
+        private final List<Product> products;
+
+        InMemoryProductInfoServiceClient(List<Product> products) {
+            this.products = products;
+        }
+
+        @Override
+        public Mono<Product> getBestProductByCode(String productCode, Scheduler reductionScheduler) {
+            return Mono.just(this.products)
+                    .publishOn(reductionScheduler)
+                    .map(ProductRanking::best);
+        }
+
+        @Override
+        public Mono<List<Product>> getTopProductsByCode(String productCode, int k, Scheduler reductionScheduler) {
+            return Mono.just(this.products)
+                    .publishOn(reductionScheduler)
+                    .map(products -> TopProducts.of(products, k));
+        }
+    }
+}
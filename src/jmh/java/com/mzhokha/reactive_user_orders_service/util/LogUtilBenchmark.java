@@ -0,0 +1,92 @@
+package com.mzhokha.reactive_user_orders_service.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+import reactor.core.publisher.Signal;
+import reactor.util.context.Context;
+
+import java.util.function.Consumer;
+
+import static com.mzhokha.reactive_user_orders_service.util.LogUtil.CONTEXT_REQUEST_ID;
+
+/*
+    Cost of LogUtil consumers per signal, with and without request id in the Reactor context.
+    *Debug benchmarks use a real logger with debug disabled (outside of the application package, root is INFO),
+    *Consumed benchmarks log at enabled INFO into a Blackhole to measure the MDC handling alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+public class LogUtilBenchmark {
+
+    private static final Logger log = LoggerFactory.getLogger("benchmark.LogUtil");
+
+    private final RuntimeException error = new RuntimeException("benchmark");
+
+    private Signal<String> nextWithRequestId;
+
+    private Signal<String> nextWithoutRequestId;
+
+    private Signal<String> errorWithRequestId;
+
+    private Signal<String> errorWithoutRequestId;
+
+    private Consumer<Signal<String>> logOnNextDebug;
+
+    private Consumer<Signal<String>> logOnErrorDebug;
+
+    @Setup
+    public void setUp() {
+        var context = Context.of(CONTEXT_REQUEST_ID, "b7c2d6a0-benchmark");
+        this.nextWithRequestId = Signal.next("order", context);
+        this.nextWithoutRequestId = Signal.next("order", Context.empty());
+        this.errorWithRequestId = Signal.error(this.error, context);
+        this.errorWithoutRequestId = Signal.error(this.error, Context.empty());
+
+        this.logOnNextDebug = LogUtil.logOnNext(log, Level.DEBUG, order -> log.debug("Received order: {}", order));
+        this.logOnErrorDebug = LogUtil.logOnError(log, Level.DEBUG, throwable -> log.debug("Error happened", throwable));
+    }
+
+    @Benchmark
+    public void logOnNextDebugWithRequestId() {
+        this.logOnNextDebug.accept(this.nextWithRequestId);
+    }
+
+    @Benchmark
+    public void logOnNextDebugWithoutRequestId() {
+        this.logOnNextDebug.accept(this.nextWithoutRequestId);
+    }
+
+    @Benchmark
+    public void logOnErrorDebugWithRequestId() {
+        this.logOnErrorDebug.accept(this.errorWithRequestId);
+    }
+
+    @Benchmark
+    public void logOnErrorDebugWithoutRequestId() {
+        this.logOnErrorDebug.accept(this.errorWithoutRequestId);
+    }
+
+    @Benchmark
+    public void logOnNextConsumedWithRequestId(Blackhole blackhole) {
+        LogUtil.<String>logOnNext(log, Level.INFO, blackhole::consume).accept(this.nextWithRequestId);
+    }
+
+    @Benchmark
+    public void logOnNextConsumedWithoutRequestId(Blackhole blackhole) {
+        LogUtil.<String>logOnNext(log, Level.INFO, blackhole::consume).accept(this.nextWithoutRequestId);
+    }
+
+    // signal type doesn't match, consumer must return without touching the context
+    @Benchmark
+    public void logOnErrorSkippedOnNext() {
+        this.logOnErrorDebug.accept(this.nextWithRequestId);
+    }
+}
@@ -0,0 +1,58 @@
+package com.mzhokha.reactive_user_orders_service.util;
+
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/*
+    Reduction of the products of one order: best product (list and streaming accumulator) and top K.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+public class ProductReductionBenchmark {
+
+    @Param({"10", "1000", "100000"})
+    private int productCount;
+
+    @Param({"5"})
+    private int k;
+
+    private List<Product> products;
+
+    @Setup
+    public void setUp() {
+        var random = new SplittableRandom(42);
+        this.products = new ArrayList<>(this.productCount);
+        for (int i = 0; i < this.productCount; i++) {
+            this.products.add(new Product(String.valueOf(i), "3852", "IPhone " + i, random.nextDouble(0, 100_000)));
+        }
+    }
+
+    @Benchmark
+    public Product best() {
+        return ProductRanking.best(this.products);
+    }
+
+    @Benchmark
+    public Product bestByLoop() {
+        var best = ProductRanking.NO_PRODUCT;
+        for (Product product : this.products) {
+            best = best == ProductRanking.NO_PRODUCT ? product : ProductRanking.higherScore(best, product);
+        }
+        return best;
+    }
+
+    @Benchmark
+    public List<Product> topK() {
+        return TopProducts.of(this.products, this.k);
+    }
+}
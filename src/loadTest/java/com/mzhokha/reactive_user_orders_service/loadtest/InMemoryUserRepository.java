@@ -0,0 +1,48 @@
+package com.mzhokha.reactive_user_orders_service.loadtest;
+
+import com.mzhokha.reactive_user_orders_service.model.User;
+import com.mzhokha.reactive_user_orders_service.model.UserRepository;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+    Stand-in for Mongo: users user0..user{N-1}, user i has phone number i padded to 9 digits.
+    Only the lookups used by UserOrdersService are supported.
+ */
+class InMemoryUserRepository {
+
+    static Map<String, User> users(int count) {
+        var users = new HashMap<String, User>(count * 2);
+        for (int i = 0; i < count; i++) {
+            var user = new User("user" + i, "User " + i, String.format("%09d", i));
+            users.put(user.id(), user);
+        }
+        return users;
+    }
+
+    @SuppressWarnings("unchecked")
+    static UserRepository create(Map<String, User> users) {
+        return (UserRepository) Proxy.newProxyInstance(
+                UserRepository.class.getClassLoader(),
+                new Class<?>[]{UserRepository.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "findById", "findNameAndPhoneById" -> args[0] instanceof String id
+                            ? Mono.justOrEmpty(users.get(id))
+                            : Mono.from((Publisher<String>) args[0]).mapNotNull(users::get);
+                    case "findAllById", "findNameAndPhoneByIdIn" -> args[0] instanceof Iterable<?> ids
+                            ? Flux.fromIterable((Iterable<String>) ids).mapNotNull(users::get)
+                            : Flux.from((Publisher<String>) args[0]).mapNotNull(users::get);
+                    case "findAll" -> Flux.fromIterable(users.values());
+                    case "count" -> Mono.just((long) users.size());
+                    case "toString" -> "InMemoryUserRepository";
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
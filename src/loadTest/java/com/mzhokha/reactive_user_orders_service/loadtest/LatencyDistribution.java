@@ -0,0 +1,41 @@
+package com.mzhokha.reactive_user_orders_service.loadtest;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/*
+    Latency of a stubbed upstream response, parsed from the command line:
+    fixed:20ms
+    uniform:5ms:50ms
+    lognormal:20ms:0.5 - median and sigma, sigma 0.5 gives p99 around 3.2 x median
+ */
+interface LatencyDistribution {
+
+    LatencyDistribution NONE = () -> Duration.ZERO;
+
+    Duration next();
+
+    static LatencyDistribution parse(String spec) {
+        var parts = spec.split(":");
+        return switch (parts[0]) {
+            case "none" -> NONE;
+            case "fixed" -> {
+                var latency = DurationStyle.detectAndParse(parts[1]);
+                yield () -> latency;
+            }
+            case "uniform" -> {
+                long min = DurationStyle.detectAndParse(parts[1]).toNanos();
+                long max = DurationStyle.detectAndParse(parts[2]).toNanos();
+                yield () -> Duration.ofNanos(ThreadLocalRandom.current().nextLong(min, max + 1));
+            }
+            case "lognormal" -> {
+                long median = DurationStyle.detectAndParse(parts[1]).toNanos();
+                double sigma = Double.parseDouble(parts[2]);
+                yield () -> Duration.ofNanos((long) (median * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian())));
+            }
+            default -> throw new IllegalArgumentException("Unknown latency distribution: " + spec);
+        };
+    }
+}
@@ -0,0 +1,194 @@
+package com.mzhokha.reactive_user_orders_service.loadtest;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+    Open-loop load: requests are sent at a fixed rate no matter how fast the service answers,
+    so a slow service builds up in-flight requests instead of silently lowering the load.
+
+    Latency is measured from the time the request was scheduled to be sent (not when it actually was),
+    which keeps sender hiccups from hiding in the numbers (coordinated omission).
+ */
+class LoadGenerator {
+
+    // one line of the replay file: {"userId":"user1","requestId":"777","k":5}, k is optional
+    record ReplayRequest(String userId, String requestId, Integer k) {
+    }
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final Duration DRAIN_TIMEOUT = Duration.ofSeconds(60);
+
+    private final WebClient webClient;
+
+    private final ConnectionProvider connectionProvider;
+
+    private final List<ReplayRequest> replayRequests;
+
+    private final double rate;
+
+    private final Duration duration;
+
+    // microseconds from scheduled send to first NDJSON line, only responses with at least one line
+    private final Histogram timeToFirstLine = new ConcurrentHistogram(3);
+
+    // microseconds from scheduled send to the end of the stream
+    private final Histogram fullStream = new ConcurrentHistogram(3);
+
+    private final AtomicLong inFlight = new AtomicLong();
+
+    private final AtomicLong completed = new AtomicLong();
+
+    private final AtomicLong emptyResponses = new AtomicLong();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    private final AtomicLong lastCompletionNanos = new AtomicLong();
+
+    LoadGenerator(String targetBaseUrl, int maxConnections, List<ReplayRequest> replayRequests, double rate, Duration duration) {
+        this.connectionProvider = ConnectionProvider.builder("load-generator")
+                .maxConnections(maxConnections)
+                .pendingAcquireMaxCount(-1)
+                .build();
+        this.webClient = WebClient.builder()
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(this.connectionProvider)))
+                .baseUrl(targetBaseUrl)
+                .build();
+        this.replayRequests = replayRequests;
+        this.rate = rate;
+        this.duration = duration;
+    }
+
+    static List<ReplayRequest> readReplayRequests(String path) throws IOException {
+        var objectMapper = new ObjectMapper().configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        var replayRequests = new ArrayList<ReplayRequest>();
+        try (var reader = path != null
+                ? Files.newBufferedReader(Path.of(path))
+                : new BufferedReader(new InputStreamReader(LoadGenerator.class.getResourceAsStream("/requests.jsonl"), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isBlank()) {
+                    replayRequests.add(objectMapper.readValue(line, ReplayRequest.class));
+                }
+            }
+        }
+        if (replayRequests.isEmpty()) {
+            throw new IllegalArgumentException("No requests to replay in " + (path != null ? path : "requests.jsonl"));
+        }
+        return replayRequests;
+    }
+
+    void run(PrintStream out) {
+        long periodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / this.rate);
+        long total = (long) (this.rate * this.duration.toNanos() / TimeUnit.SECONDS.toNanos(1));
+
+        long start = System.nanoTime();
+        for (long i = 0; i < total; i++) {
+            long scheduled = start + i * periodNanos;
+            long now;
+            while ((now = System.nanoTime()) < scheduled) {
+                LockSupport.parkNanos(scheduled - now);
+            }
+            send(this.replayRequests.get((int) (i % this.replayRequests.size())), scheduled);
+        }
+        long sendingNanos = System.nanoTime() - start;
+
+        long drainDeadline = System.nanoTime() + DRAIN_TIMEOUT.toNanos();
+        while (this.inFlight.get() > 0 && System.nanoTime() < drainDeadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        long elapsedNanos = Math.max(this.lastCompletionNanos.get() - start, sendingNanos);
+
+        out.printf("Sent %d requests in %.1fs, target rate %.1f/s, achieved %.1f/s%n",
+                total, seconds(sendingNanos), this.rate, total / seconds(sendingNanos));
+        out.printf("Completed %d (%d empty), errors %d, still in flight %d, throughput %.1f/s%n",
+                this.completed.get(), this.emptyResponses.get(), this.errors.get(), this.inFlight.get(),
+                this.completed.get() / seconds(elapsedNanos));
+        printPercentiles(out, "time to first line", this.timeToFirstLine);
+        printPercentiles(out, "full stream", this.fullStream);
+
+        this.connectionProvider.dispose();
+    }
+
+    private void send(ReplayRequest replayRequest, long scheduledNanos) {
+        this.inFlight.incrementAndGet();
+        var firstLine = new AtomicBoolean();
+
+        this.webClient.get()
+                .uri(uriBuilder -> uriBuilder.path("/userOrdersService/user/orders")
+                        .queryParam("userId", replayRequest.userId())
+                        .queryParamIfPresent("k", Optional.ofNullable(replayRequest.k()))
+                        .build())
+                .header("requestId", replayRequest.requestId())
+                .retrieve()
+                .bodyToFlux(String.class)
+                .doOnNext(line -> {
+                    if (firstLine.compareAndSet(false, true)) {
+                        this.timeToFirstLine.recordValue(microsSince(scheduledNanos));
+                    }
+                })
+                .timeout(REQUEST_TIMEOUT)
+                .then()
+                .subscribe(
+                        null,
+                        error -> {
+                            this.errors.incrementAndGet();
+                            done();
+                        },
+                        () -> {
+                            this.fullStream.recordValue(microsSince(scheduledNanos));
+                            this.completed.incrementAndGet();
+                            if (!firstLine.get()) {
+                                this.emptyResponses.incrementAndGet();
+                            }
+                            done();
+                        });
+    }
+
+    private void done() {
+        this.lastCompletionNanos.accumulateAndGet(System.nanoTime(), Math::max);
+        this.inFlight.decrementAndGet();
+    }
+
+    private static long microsSince(long nanos) {
+        return Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - nanos));
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static void printPercentiles(PrintStream out, String name, Histogram histogram) {
+        out.printf("%-18s ms: p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f (n=%d)%n",
+                name,
+                histogram.getValueAtPercentile(50) / 1000.0,
+                histogram.getValueAtPercentile(90) / 1000.0,
+                histogram.getValueAtPercentile(99) / 1000.0,
+                histogram.getValueAtPercentile(99.9) / 1000.0,
+                histogram.getMaxValue() / 1000.0,
+                histogram.getTotalCount());
+    }
+}
@@ -0,0 +1,140 @@
+package com.mzhokha.reactive_user_orders_service.loadtest;
+
+import com.mzhokha.reactive_user_orders_service.UserOrdersServiceApplication;
+import com.mzhokha.reactive_user_orders_service.model.UserRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.boot.web.reactive.context.ReactiveWebServerApplicationContext;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.support.GenericApplicationContext;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+    End-to-end load test: ./gradlew loadTest -PloadTestArgs="--rate=500 --duration=60s"
+
+    By default starts the upstream stubs and the service itself (in-memory users instead of Mongo, random ports)
+    and replays src/loadTest/resources/requests.jsonl in a loop at the target rate.
+    With --target=http://host:port only the load is generated, against an already running service.
+
+    Options (defaults in brackets):
+    --rate=100               requests per second
+    --duration=30s
+    --connections=1000       max connections of the load generator
+    --requests=path          JSONL file to replay [requests.jsonl from resources]
+    --users=1000             in-memory users user0..user999
+    --orders=10              orders per user
+    --products=50            products per product code
+    --product-codes=500      distinct product codes
+    --order-latency=lognormal:20ms:0.5     per order line
+    --product-latency=lognormal:10ms:0.5   per product-info response
+    Any other --key=value is passed to the service, e.g. --product.info.service.cache.enabled=false
+ */
+public class LoadTest {
+
+    // service runs without Mongo, UserRepository is replaced by InMemoryUserRepository
+    private static final String MONGO_AUTO_CONFIGURATIONS = String.join(",",
+            "org.springframework.boot.autoconfigure.mongo.MongoAutoConfiguration",
+            "org.springframework.boot.autoconfigure.mongo.MongoReactiveAutoConfiguration",
+            "org.springframework.boot.autoconfigure.data.mongo.MongoDataAutoConfiguration",
+            "org.springframework.boot.autoconfigure.data.mongo.MongoReactiveDataAutoConfiguration",
+            "org.springframework.boot.autoconfigure.data.mongo.MongoRepositoriesAutoConfiguration",
+            "org.springframework.boot.autoconfigure.data.mongo.MongoReactiveRepositoriesAutoConfiguration");
+
+    record Options(String target,
+                   double rate,
+                   Duration duration,
+                   int connections,
+                   String requests,
+                   int users,
+                   UpstreamStubs.Settings stubSettings,
+                   List<String> serviceArgs) {
+
+        static Options parse(String[] args) {
+            String target = null;
+            double rate = 100;
+            Duration duration = Duration.ofSeconds(30);
+            int connections = 1000;
+            String requests = null;
+            int users = 1000;
+            int orders = 10;
+            int products = 50;
+            int productCodes = 500;
+            var orderLatency = LatencyDistribution.parse("lognormal:20ms:0.5");
+            var productLatency = LatencyDistribution.parse("lognormal:10ms:0.5");
+            var serviceArgs = new ArrayList<String>();
+
+            for (String arg : args) {
+                var separator = arg.indexOf('=');
+                if (!arg.startsWith("--") || separator < 0) {
+                    throw new IllegalArgumentException("Expected --key=value: " + arg);
+                }
+                var value = arg.substring(separator + 1);
+                switch (arg.substring(2, separator)) {
+                    case "target" -> target = value;
+                    case "rate" -> rate = Double.parseDouble(value);
+                    case "duration" -> duration = DurationStyle.detectAndParse(value);
+                    case "connections" -> connections = Integer.parseInt(value);
+                    case "requests" -> requests = value;
+                    case "users" -> users = Integer.parseInt(value);
+                    case "orders" -> orders = Integer.parseInt(value);
+                    case "products" -> products = Integer.parseInt(value);
+                    case "product-codes" -> productCodes = Integer.parseInt(value);
+                    case "order-latency" -> orderLatency = LatencyDistribution.parse(value);
+                    case "product-latency" -> productLatency = LatencyDistribution.parse(value);
+                    default -> serviceArgs.add(arg);
+                }
+            }
+            return new Options(target, rate, duration, connections, requests, users,
+                    new UpstreamStubs.Settings(orders, orderLatency, products, productCodes, productLatency),
+                    serviceArgs);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        var options = Options.parse(args);
+        var replayRequests = LoadGenerator.readReplayRequests(options.requests());
+
+        UpstreamStubs stubs = null;
+        ConfigurableApplicationContext service = null;
+        String target = options.target();
+        try {
+            if (target == null) {
+                stubs = new UpstreamStubs(options.stubSettings()).start();
+                service = startService(options, stubs);
+                target = "http://localhost:" + ((ReactiveWebServerApplicationContext) service).getWebServer().getPort();
+            }
+            System.out.printf("Replaying %d requests against %s%n", replayRequests.size(), target);
+
+            new LoadGenerator(target, options.connections(), replayRequests, options.rate(), options.duration())
+                    .run(System.out);
+        } finally {
+            if (service != null) {
+                service.close();
+            }
+            if (stubs != null) {
+                stubs.stop();
+            }
+        }
+    }
+
+    private static ConfigurableApplicationContext startService(Options options, UpstreamStubs stubs) {
+        var users = InMemoryUserRepository.users(options.users());
+        ApplicationContextInitializer<GenericApplicationContext> inMemoryUsers = context ->
+                context.registerBean(UserRepository.class, () -> InMemoryUserRepository.create(users));
+
+        return new SpringApplicationBuilder(UserOrdersServiceApplication.class)
+                .properties(
+                        "server.port=0",
+                        "order.search.service.base.url=" + stubs.orderSearchBaseUrl(),
+                        "product.info.service.base.url=" + stubs.productInfoBaseUrl(),
+                        "spring.autoconfigure.exclude=" + MONGO_AUTO_CONFIGURATIONS,
+                        // request logging at INFO would measure the console
+                        "logging.level.com.mzhokha.reactive_user_orders_service=WARN")
+                .initializers(inMemoryUsers)
+                .run(options.serviceArgs().toArray(String[]::new));
+    }
+}
@@ -0,0 +1,124 @@
+package com.mzhokha.reactive_user_orders_service.loadtest;
+
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import org.reactivestreams.Publisher;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerRequest;
+import reactor.netty.http.server.HttpServerResponse;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/*
+    Local order-search-service and product-info-service answering like the real ones, on random ports.
+
+    order-search: ordersPerUser NDJSON lines per phone number, each line delayed by orderLatency.
+    Product codes are spread over productCodes distinct values, so cache hit ratio depends on the number of users.
+    product-info: productsPerCode products per code after productLatency, batch endpoint answers with one delay.
+ */
+class UpstreamStubs {
+
+    record Settings(int ordersPerUser,
+                    LatencyDistribution orderLatency,
+                    int productsPerCode,
+                    int productCodes,
+                    LatencyDistribution productLatency) {
+    }
+
+    private final Settings settings;
+
+    // JSON of product list is the same for every call with the same code
+    private final Map<String, String> productsJsonByCode = new ConcurrentHashMap<>();
+
+    private DisposableServer orderSearchServer;
+
+    private DisposableServer productInfoServer;
+
+    UpstreamStubs(Settings settings) {
+        this.settings = settings;
+    }
+
+    UpstreamStubs start() {
+        this.orderSearchServer = HttpServer.create()
+                .port(0)
+                .route(routes -> routes.get("/orderSearchService/order/phone", this::orders))
+                .bindNow();
+        this.productInfoServer = HttpServer.create()
+                .port(0)
+                .route(routes -> routes
+                        .get("/productInfoService/product/names", this::products)
+                        .get("/productInfoService/product/names/batch", this::productsBatch))
+                .bindNow();
+        return this;
+    }
+
+    void stop() {
+        this.orderSearchServer.disposeNow();
+        this.productInfoServer.disposeNow();
+    }
+
+    String orderSearchBaseUrl() {
+        return "http://localhost:" + this.orderSearchServer.port();
+    }
+
+    String productInfoBaseUrl() {
+        return "http://localhost:" + this.productInfoServer.port();
+    }
+
+    private Publisher<Void> orders(HttpServerRequest request, HttpServerResponse response) {
+        var phoneNumber = queryParam(request, "phoneNumber");
+        var orderLines = Flux.range(0, this.settings.ordersPerUser())
+                .concatMap(i -> Mono.delay(this.settings.orderLatency().next())
+                        .thenReturn("{\"phoneNumber\":\"" + phoneNumber
+                                + "\",\"orderNumber\":\"Order_" + i
+                                + "\",\"productCode\":\"" + productCode(phoneNumber, i) + "\"}\n"));
+        return response.header(HttpHeaderNames.CONTENT_TYPE, "application/x-ndjson")
+                .sendString(orderLines);
+    }
+
+    private Publisher<Void> products(HttpServerRequest request, HttpServerResponse response) {
+        var productCode = queryParam(request, "productCode");
+        return response.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                .sendString(Mono.delay(this.settings.productLatency().next())
+                        .map(tick -> "[" + productsJson(productCode) + "]"));
+    }
+
+    private Publisher<Void> productsBatch(HttpServerRequest request, HttpServerResponse response) {
+        var productCodes = List.of(queryParam(request, "productCodes").split(","));
+        return response.header(HttpHeaderNames.CONTENT_TYPE, "application/json")
+                .sendString(Mono.delay(this.settings.productLatency().next())
+                        .map(tick -> productCodes.stream()
+                                .map(this::productsJson)
+                                .filter(json -> !json.isEmpty())
+                                .collect(Collectors.joining(",", "[", "]"))));
+    }
+
+    private String productCode(String phoneNumber, int orderIndex) {
+        return String.valueOf(1000 + Math.floorMod(phoneNumber.hashCode() * 31 + orderIndex, this.settings.productCodes()));
+    }
+
+    private String productsJson(String productCode) {
+        return this.productsJsonByCode.computeIfAbsent(productCode, code -> {
+            var random = new SplittableRandom(code.hashCode());
+            return IntStream.range(0, this.settings.productsPerCode())
+                    .mapToObj(i -> "{\"productId\":\"" + code + "-" + i
+                            + "\",\"productCode\":\"" + code
+                            + "\",\"productName\":\"Product " + code + "-" + i
+                            + "\",\"score\":" + random.nextDouble(0, 10_000) + "}")
+                    .collect(Collectors.joining(","));
+        });
+    }
+
+    private static String queryParam(HttpServerRequest request, String name) {
+        var values = new QueryStringDecoder(request.uri()).parameters().get(name);
+        return values == null || values.isEmpty() ? "" : values.get(0);
+    }
+}
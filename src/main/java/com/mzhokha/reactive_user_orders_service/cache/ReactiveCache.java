@@ -0,0 +1,59 @@
+package com.mzhokha.reactive_user_orders_service.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/*
+    Async loading cache on top of Caffeine for values produced by Mono.
+
+    Concurrent misses for the same key share one in-flight load (single-flight):
+    the first subscriber starts the loader, the others attach to the same CompletableFuture.
+    Failed or empty loads are not kept in the cache.
+
+    Cancelling one subscriber doesn't cancel the shared load, so other subscribers still get the value.
+ */
+public class ReactiveCache<K, V> {
+
+    private final AsyncCache<K, V> cache;
+
+    public ReactiveCache(String name, long maximumSize, Duration expireAfterWrite, MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(expireAfterWrite)
+                .recordStats()
+                .buildAsync();
+        // cache.gets{result=hit|miss}, cache.load.duration, cache.evictions, cache.size
+        CaffeineCacheMetrics.monitor(meterRegistry, this.cache.synchronous(), name);
+    }
+
+    public Mono<V> get(K key, Function<? super K, ? extends Mono<V>> loader) {
+        return Mono.fromFuture(
+                () -> this.cache.get(key, (k, executor) -> loader.apply(k).toFuture()),
+                true);
+    }
+
+    // replaces the value or an in-flight load, the replaced load still completes for its subscribers
+    public void put(K key, V value) {
+        this.cache.put(key, CompletableFuture.completedFuture(value));
+    }
+
+    public void invalidate(K key) {
+        this.cache.synchronous().invalidate(key);
+    }
+
+    public void invalidateAll() {
+        this.cache.synchronous().invalidateAll();
+    }
+
+    public CacheStats stats() {
+        return this.cache.synchronous().stats();
+    }
+}
@@ -0,0 +1,144 @@
+package com.mzhokha.reactive_user_orders_service.cache;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/*
+    Cache of whole responses with stale-while-revalidate.
+
+    Entry younger than freshTtl is a HIT. Entry between freshTtl and staleTtl is STALE:
+    it is still returned right away, and one background refresh per key replaces it.
+    Older entries are gone, which is a MISS: the caller produces the value and puts it.
+    A refresh completing without a value keeps the stale entry, loader does so for values not worth caching.
+    Size is bounded by maxWeight, weight of a value is given by the weigher.
+
+    Lookups are counted in response.cache.lookups{cache, result=hit|stale|miss},
+    background refreshes in response.cache.refreshes{cache, outcome=success|skipped|error}.
+ */
+public class StaleWhileRevalidateCache<K, V> {
+
+    private static final Logger log = LoggerFactory.getLogger(StaleWhileRevalidateCache.class);
+
+    public enum Status {
+        HIT, STALE, MISS
+    }
+
+    // value is null on MISS
+    public record Lookup<V>(Status status, V value) {
+    }
+
+    private record Entry<V>(V value, long loadedAtNanos) {
+    }
+
+    private final String name;
+
+    private final Cache<K, Entry<V>> cache;
+
+    private final long freshTtlNanos;
+
+    private final Map<K, Boolean> refreshing = new ConcurrentHashMap<>();
+
+    private final Map<Status, Counter> lookups = new EnumMap<>(Status.class);
+
+    private final Counter refreshSuccesses;
+
+    private final Counter refreshSkips;
+
+    private final Counter refreshErrors;
+
+    public StaleWhileRevalidateCache(String name,
+                                     long maxWeight,
+                                     ToIntFunction<V> weigher,
+                                     Duration freshTtl,
+                                     Duration staleTtl,
+                                     MeterRegistry meterRegistry) {
+        this.name = name;
+        this.freshTtlNanos = freshTtl.toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxWeight)
+                .weigher((K key, Entry<V> entry) -> weigher.applyAsInt(entry.value()))
+                .expireAfterWrite(staleTtl)
+                .recordStats()
+                .build();
+        CaffeineCacheMetrics.monitor(meterRegistry, this.cache, name);
+
+        for (Status status : Status.values()) {
+            this.lookups.put(status, Counter.builder("response.cache.lookups")
+                    .tag("cache", name)
+                    .tag("result", status.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        this.refreshSuccesses = Counter.builder("response.cache.refreshes")
+                .tag("cache", name)
+                .tag("outcome", "success")
+                .register(meterRegistry);
+        this.refreshSkips = Counter.builder("response.cache.refreshes")
+                .tag("cache", name)
+                .tag("outcome", "skipped")
+                .register(meterRegistry);
+        this.refreshErrors = Counter.builder("response.cache.refreshes")
+                .tag("cache", name)
+                .tag("outcome", "error")
+                .register(meterRegistry);
+    }
+
+    // loader is used only for the background refresh of a stale entry, empty result keeps the stale entry
+    public Lookup<V> get(K key, Function<? super K, ? extends Mono<V>> loader) {
+        var entry = this.cache.getIfPresent(key);
+        if (entry == null) {
+            this.lookups.get(Status.MISS).increment();
+            return new Lookup<>(Status.MISS, null);
+        }
+        if (System.nanoTime() - entry.loadedAtNanos() < this.freshTtlNanos) {
+            this.lookups.get(Status.HIT).increment();
+            return new Lookup<>(Status.HIT, entry.value());
+        }
+        this.lookups.get(Status.STALE).increment();
+        refresh(key, loader);
+        return new Lookup<>(Status.STALE, entry.value());
+    }
+
+    public void put(K key, V value) {
+        this.cache.put(key, new Entry<>(value, System.nanoTime()));
+    }
+
+    public void invalidate(K key) {
+        this.cache.invalidate(key);
+    }
+
+    private void refresh(K key, Function<? super K, ? extends Mono<V>> loader) {
+        if (this.refreshing.putIfAbsent(key, Boolean.TRUE) != null) {
+            return;
+        }
+        loader.apply(key)
+                .doOnSuccess(value -> {
+                    if (value == null) {
+                        this.refreshSkips.increment();
+                    }
+                })
+                .doFinally(signal -> this.refreshing.remove(key))
+                .subscribe(
+                        value -> {
+                            put(key, value);
+                            this.refreshSuccesses.increment();
+                        },
+                        error -> {
+                            // stale entry stays until staleTtl, next lookup tries again
+                            this.refreshErrors.increment();
+                            log.warn("Refresh of {} in cache {} failed", key, this.name, error);
+                        });
+    }
+}
@@ -0,0 +1,224 @@
+package com.mzhokha.reactive_user_orders_service.cache;
+
+import com.mongodb.client.model.changestream.OperationType;
+import com.mzhokha.reactive_user_orders_service.model.User;
+import com.mzhokha.reactive_user_orders_service.model.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/*
+    In-process cache of users in front of UserRepository, bounded by size.
+
+    Entries are kept up to date by a change stream on users collection: insert, update, replace and delete
+    invalidate the user, drop/rename/invalidate of the collection clears the cache. The next lookup reads
+    the user again. Changes only invalidate, so a lookup that read the user before the change can't put
+    the old user back after it (its in-flight load is dropped from the cache by the invalidation).
+    When the stream fails or ends (e.g. after the INVALIDATE that follows drop or rename of users) it is reopened
+    with backoff, and the cache is cleared on every reopen as changes made meanwhile are lost.
+    ttl bounds staleness when the stream is down for longer.
+
+    Change streams need a replica set (a single node one is enough) or mongos, which is checked once at start.
+    On a standalone server, or without ReactiveMongoTemplate (e.g. load test with in-memory UserRepository),
+    the stream is not opened and entries live until ttl.
+ */
+@Component
+public class UserNearCache implements InitializingBean, DisposableBean {
+
+    private static Logger log = LoggerFactory.getLogger(UserNearCache.class);
+
+    public static final String CHANGE_STREAM_RESTART_COUNTER = "user.near.cache.change.stream.restarts";
+
+    @Value("${user.near.cache.enabled}")
+    boolean enabled = true;
+
+    @Value("${user.near.cache.max.size}")
+    long maxSize = 100_000;
+
+    @Value("${user.near.cache.ttl}")
+    Duration ttl = Duration.ofMinutes(10);
+
+    @Value("${user.near.cache.change.stream.enabled}")
+    boolean changeStreamEnabled = true;
+
+    @Value("${user.near.cache.change.stream.retry.backoff}")
+    Duration changeStreamRetryBackoff = Duration.ofSeconds(1);
+
+    @Value("${user.near.cache.change.stream.retry.max.backoff}")
+    Duration changeStreamRetryMaxBackoff = Duration.ofMinutes(1);
+
+    @Autowired(required = false)
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+    private final UserRepository userRepository;
+
+    // null when there is no Mongo to listen to
+    private final Supplier<Flux<UserChange>> userChanges;
+
+    private final Mono<Boolean> changeStreamSupported;
+
+    private ReactiveCache<String, User> cache;
+
+    private Disposable changeStreamSubscription;
+
+    // userId is null for changes of the whole collection
+    record UserChange(OperationType operationType, String userId) {
+    }
+
+    @Autowired
+    public UserNearCache(UserRepository userRepository, ObjectProvider<ReactiveMongoTemplate> mongoTemplate) {
+        this(userRepository,
+                changeStreamSupport(mongoTemplate.getIfAvailable()),
+                changeStream(mongoTemplate.getIfAvailable()));
+    }
+
+    UserNearCache(UserRepository userRepository,
+                  Mono<Boolean> changeStreamSupported,
+                  Supplier<Flux<UserChange>> userChanges) {
+        this.userRepository = userRepository;
+        this.changeStreamSupported = changeStreamSupported;
+        this.userChanges = userChanges;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        if (!this.enabled) {
+            return;
+        }
+        this.cache = new ReactiveCache<>("users", this.maxSize, this.ttl, this.meterRegistry);
+
+        if (this.changeStreamEnabled && this.userChanges != null) {
+            this.changeStreamSubscription = this.changeStreamSupported
+                    .flatMapMany(supported -> {
+                        if (!supported) {
+                            log.info("Mongo is neither a replica set nor mongos, users are cached for {} without change stream", this.ttl);
+                            return Flux.empty();
+                        }
+                        return reopenedUserChanges();
+                    })
+                    .subscribe(this::apply);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (this.changeStreamSubscription != null) {
+            this.changeStreamSubscription.dispose();
+        }
+    }
+
+    // ended stream is turned into an error, so it is reopened with the same backoff as a failed one
+    private Flux<UserChange> reopenedUserChanges() {
+        var opened = new AtomicBoolean();
+        return Flux.defer(() -> {
+                    if (opened.getAndSet(true)) {
+                        this.meterRegistry.counter(CHANGE_STREAM_RESTART_COUNTER).increment();
+                        this.cache.invalidateAll();
+                    }
+                    return this.userChanges.get();
+                })
+                .concatWith(Mono.error(() -> new IllegalStateException("Change stream of users ended")))
+                .doOnError(e -> log.warn("Change stream of users closed, reopening it: {}", e.toString()))
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, this.changeStreamRetryBackoff)
+                        .maxBackoff(this.changeStreamRetryMaxBackoff));
+    }
+
+    public Mono<User> findById(String userId) {
+        if (this.cache == null) {
+            return this.userRepository.findNameAndPhoneById(userId);
+        }
+        return this.cache.get(userId, this.userRepository::findNameAndPhoneById);
+    }
+
+    private void apply(UserChange change) {
+        if (change.operationType() == null) {
+            return;
+        }
+        switch (change.operationType()) {
+            case INSERT, UPDATE, REPLACE, DELETE -> {
+                if (change.userId() == null) {
+                    this.cache.invalidateAll();
+                } else {
+                    this.cache.invalidate(change.userId());
+                }
+            }
+            case DROP, RENAME, DROP_DATABASE, INVALIDATE -> this.cache.invalidateAll();
+            default -> {
+            }
+        }
+    }
+
+    // replica set members report setName, mongos reports msg: isdbgrid (hello, MongoDB 4.4.2+)
+    private static Mono<Boolean> changeStreamSupport(ReactiveMongoTemplate mongoTemplate) {
+        if (mongoTemplate == null) {
+            return Mono.just(false);
+        }
+        return mongoTemplate.executeCommand(new Document("hello", 1))
+                .map(reply -> reply.containsKey("setName") || "isdbgrid".equals(reply.get("msg")));
+    }
+
+    // only the key of the changed document is used, updates don't look up the full document
+    private static Supplier<Flux<UserChange>> changeStream(ReactiveMongoTemplate mongoTemplate) {
+        if (mongoTemplate == null) {
+            return null;
+        }
+        return () -> mongoTemplate.changeStream("users", ChangeStreamOptions.empty(), Document.class)
+                .map(UserNearCache::toUserChange);
+    }
+
+    private static UserChange toUserChange(ChangeStreamEvent<Document> event) {
+        var raw = event.getRaw();
+        String userId = null;
+        if (raw != null && raw.getDocumentKey() != null) {
+            userId = idToString(raw.getDocumentKey().get("_id"));
+        }
+        return new UserChange(event.getOperationType(), userId);
+    }
+
+    // String ids that look like ObjectId are stored as ObjectId
+    private static String idToString(BsonValue id) {
+        if (id == null) {
+            return null;
+        }
+        if (id.isObjectId()) {
+            return id.asObjectId().getValue().toHexString();
+        }
+        return id.isString() ? id.asString().getValue() : id.toString();
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setTtl(Duration ttl) {
+        this.ttl = ttl;
+    }
+
+    public void setChangeStreamRetryBackoff(Duration changeStreamRetryBackoff) {
+        this.changeStreamRetryBackoff = changeStreamRetryBackoff;
+    }
+
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+}
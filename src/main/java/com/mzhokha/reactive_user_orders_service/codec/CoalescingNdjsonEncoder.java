@@ -0,0 +1,132 @@
+package com.mzhokha.reactive_user_orders_service.codec;
+
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.HttpMessageEncoder;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.lang.Nullable;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+/*
+    NDJSON streams of any element type: lines written by the delegate encoder (UserOrderNdjsonEncoder, Jackson)
+    are coalesced into fewer buffers, as the writer flushes every emitted buffer.
+
+    FlushPolicy: the first line goes alone right away (time to first byte), the following ones are joined until
+    maxElements lines, maxDelay since the first line of the group or maxBytes, whatever comes first.
+    Single values (Mono) are passed through. Only NDJSON is encoded, other media types are left to the other writers.
+ */
+public class CoalescingNdjsonEncoder<T> implements HttpMessageEncoder<T> {
+
+    // maxElements = 1 flushes every line on its own
+    public record FlushPolicy(int maxElements, Duration maxDelay, int maxBytes) {
+
+        public static final FlushPolicy EACH_ELEMENT = new FlushPolicy(1, Duration.ZERO, 0);
+
+        boolean coalescing() {
+            return this.maxElements > 1;
+        }
+    }
+
+    private static final List<MimeType> MIME_TYPES = List.of(MediaType.APPLICATION_NDJSON);
+
+    private static final List<MediaType> STREAMING_MEDIA_TYPES = List.of(MediaType.APPLICATION_NDJSON);
+
+    private final HttpMessageEncoder<T> delegate;
+
+    private final FlushPolicy flushPolicy;
+
+    public CoalescingNdjsonEncoder(HttpMessageEncoder<T> delegate, FlushPolicy flushPolicy) {
+        this.delegate = delegate;
+        this.flushPolicy = flushPolicy;
+    }
+
+    // media type is required, otherwise the delegate (Jackson takes any Object) would offer NDJSON for every response
+    @Override
+    public boolean canEncode(ResolvableType elementType, @Nullable MimeType mimeType) {
+        return mimeType != null
+                && MediaType.APPLICATION_NDJSON.isCompatibleWith(mimeType)
+                && this.delegate.canEncode(elementType, mimeType);
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<? extends T> inputStream,
+                                   DataBufferFactory bufferFactory,
+                                   ResolvableType elementType,
+                                   @Nullable MimeType mimeType,
+                                   @Nullable Map<String, Object> hints) {
+        var lines = this.delegate.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+        if (inputStream instanceof Mono || !this.flushPolicy.coalescing()) {
+            return lines;
+        }
+        return coalesce(lines, bufferFactory);
+    }
+
+    /*
+        Window is closed after the first line and then each time maxBytes is reached,
+        within the window lines are grouped by maxElements / maxDelay. Byte count is kept per window,
+        so a group cut by count or time may be followed by a smaller one cut by bytes.
+        Groups follow the writer's demand: when a slow client stops the writer from requesting, lines keep
+        joining the group due after maxDelay and it is emitted on the next request, the response isn't aborted.
+     */
+    private Flux<DataBuffer> coalesce(Flux<DataBuffer> lines, DataBufferFactory bufferFactory) {
+        return Flux.defer(() -> {
+                    var firstLine = new boolean[]{true};
+                    var windowBytes = new long[1];
+                    return lines.windowUntil(line -> {
+                        if (firstLine[0]) {
+                            firstLine[0] = false;
+                            return true;
+                        }
+                        windowBytes[0] += line.readableByteCount();
+                        if (windowBytes[0] >= this.flushPolicy.maxBytes()) {
+                            windowBytes[0] = 0;
+                            return true;
+                        }
+                        return false;
+                    });
+                })
+                .concatMap(window -> window.bufferTimeout(this.flushPolicy.maxElements(), this.flushPolicy.maxDelay(), true))
+                .map(group -> group.size() == 1 ? group.get(0) : bufferFactory.join(group))
+                // lines waiting in a group when the client goes away
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    @Override
+    public DataBuffer encodeValue(T value,
+                                  DataBufferFactory bufferFactory,
+                                  ResolvableType valueType,
+                                  @Nullable MimeType mimeType,
+                                  @Nullable Map<String, Object> hints) {
+        return this.delegate.encodeValue(value, bufferFactory, valueType, mimeType, hints);
+    }
+
+    @Override
+    public Map<String, Object> getEncodeHints(ResolvableType actualType,
+                                              ResolvableType elementType,
+                                              @Nullable MediaType mediaType,
+                                              ServerHttpRequest request,
+                                              ServerHttpResponse response) {
+        return this.delegate.getEncodeHints(actualType, elementType, mediaType, request, response);
+    }
+
+    @Override
+    public List<MimeType> getEncodableMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    @Override
+    public List<MediaType> getStreamingMediaTypes() {
+        return STREAMING_MEDIA_TYPES;
+    }
+}
@@ -0,0 +1,48 @@
+package com.mzhokha.reactive_user_orders_service.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+
+import java.time.Duration;
+
+/*
+    NDJSON responses go through CoalescingNdjsonEncoder whichever encoder writes the lines:
+    UserOrderNdjsonEncoder for UserOrder when enabled, Jackson for UserOrder otherwise and for the other types
+    (BulkUserOrder). Both go before the default Jackson encoder, which still writes the other media types.
+ */
+@Configuration
+public class CodecConfig implements WebFluxConfigurer {
+
+    @Value("${user.orders.ndjson.encoder.enabled}")
+    private boolean userOrderEncoderEnabled = true;
+
+    @Value("${user.orders.ndjson.flush.max.elements}")
+    private int flushMaxElements = 64;
+
+    @Value("${user.orders.ndjson.flush.max.delay}")
+    private Duration flushMaxDelay = Duration.ofMillis(10);
+
+    @Value("${user.orders.ndjson.flush.max.bytes}")
+    private int flushMaxBytes = 32 * 1024;
+
+    private final ObjectMapper objectMapper;
+
+    public CodecConfig(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        var flushPolicy = new CoalescingNdjsonEncoder.FlushPolicy(this.flushMaxElements, this.flushMaxDelay, this.flushMaxBytes);
+        if (this.userOrderEncoderEnabled) {
+            configurer.customCodecs().register(new CoalescingNdjsonEncoder<>(new UserOrderNdjsonEncoder(), flushPolicy));
+        }
+        configurer.customCodecs().register(new CoalescingNdjsonEncoder<>(
+                new Jackson2JsonEncoder(this.objectMapper, MediaType.APPLICATION_NDJSON), flushPolicy));
+    }
+}
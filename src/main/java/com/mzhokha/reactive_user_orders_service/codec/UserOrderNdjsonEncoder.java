@@ -0,0 +1,252 @@
+package com.mzhokha.reactive_user_orders_service.codec;
+
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import com.mzhokha.reactive_user_orders_service.response.UserOrder;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.HttpMessageEncoder;
+import org.springframework.lang.Nullable;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/*
+    Writes UserOrder as NDJSON straight into the buffer from the server's factory (pooled Netty buffer under Reactor Netty),
+    without reflection and without intermediate byte arrays. Field names are encoded once.
+
+    Output is byte for byte what Jackson writes with default settings:
+    declaration order of record components, nulls written as null, topProducts omitted when null,
+    \", \\, \b \t \n \f \r and \\u00XX escapes for other control characters, surrogates escaped as \\uXXXX,
+    doubles via Double.toString, NaN and Infinity as strings.
+    Any change of UserOrder or Product must be mirrored here, TestUserOrderNdjsonEncoder compares with Jackson.
+
+    Streams are emitted one buffer per line, CodecConfig wraps the encoder in CoalescingNdjsonEncoder.
+ */
+public class UserOrderNdjsonEncoder implements HttpMessageEncoder<UserOrder> {
+
+    private static final List<MimeType> MIME_TYPES = List.of(MediaType.APPLICATION_NDJSON);
+
+    private static final List<MediaType> STREAMING_MEDIA_TYPES = List.of(MediaType.APPLICATION_NDJSON);
+
+    private static final byte[] ORDER_NUMBER = ascii("{\"orderNumber\":");
+    private static final byte[] USER_NAME = ascii(",\"userName\":");
+    private static final byte[] PHONE_NUMBER = ascii(",\"phoneNumber\":");
+    private static final byte[] PRODUCT_CODE = ascii(",\"productCode\":");
+    private static final byte[] PRODUCT_NAME = ascii(",\"productName\":");
+    private static final byte[] PRODUCT_ID = ascii(",\"productId\":");
+    private static final byte[] TOP_PRODUCTS = ascii(",\"topProducts\":[");
+
+    private static final byte[] TOP_PRODUCT_ID = ascii("{\"productId\":");
+    private static final byte[] TOP_PRODUCT_CODE = ascii(",\"productCode\":");
+    private static final byte[] TOP_PRODUCT_NAME = ascii(",\"productName\":");
+    private static final byte[] TOP_PRODUCT_SCORE = ascii(",\"score\":");
+
+    private static final byte[] NULL = ascii("null");
+
+    private static final byte[] HEX = ascii("0123456789ABCDEF");
+
+    // 0 - written as is, -1 - \\u00XX, otherwise the character after backslash
+    private static final int[] ASCII_ESCAPES = new int[128];
+
+    static {
+        for (int i = 0; i < 0x20; i++) {
+            ASCII_ESCAPES[i] = -1;
+        }
+        ASCII_ESCAPES['"'] = '"';
+        ASCII_ESCAPES['\\'] = '\\';
+        ASCII_ESCAPES['\b'] = 'b';
+        ASCII_ESCAPES['\t'] = 't';
+        ASCII_ESCAPES['\n'] = 'n';
+        ASCII_ESCAPES['\f'] = 'f';
+        ASCII_ESCAPES['\r'] = 'r';
+    }
+
+    @Override
+    public boolean canEncode(ResolvableType elementType, @Nullable MimeType mimeType) {
+        return UserOrder.class.equals(elementType.toClass())
+                && (mimeType == null || MediaType.APPLICATION_NDJSON.isCompatibleWith(mimeType));
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<? extends UserOrder> inputStream,
+                                   DataBufferFactory bufferFactory,
+                                   ResolvableType elementType,
+                                   @Nullable MimeType mimeType,
+                                   @Nullable Map<String, Object> hints) {
+        // same as Jackson2JsonEncoder: single value has no line separator
+        if (inputStream instanceof Mono) {
+            return Mono.from(inputStream)
+                    .map(userOrder -> encode(userOrder, bufferFactory, false))
+                    .flux();
+        }
+        return Flux.from(inputStream)
+                .map(userOrder -> encode(userOrder, bufferFactory, true));
+    }
+
+    @Override
+    public DataBuffer encodeValue(UserOrder userOrder,
+                                  DataBufferFactory bufferFactory,
+                                  ResolvableType valueType,
+                                  @Nullable MimeType mimeType,
+                                  @Nullable Map<String, Object> hints) {
+        return encode(userOrder, bufferFactory, false);
+    }
+
+    @Override
+    public List<MimeType> getEncodableMimeTypes() {
+        return MIME_TYPES;
+    }
+
+    @Override
+    public List<MediaType> getStreamingMediaTypes() {
+        return STREAMING_MEDIA_TYPES;
+    }
+
+    DataBuffer encode(UserOrder userOrder, DataBufferFactory bufferFactory, boolean lineSeparator) {
+        var buffer = bufferFactory.allocateBuffer(estimateSize(userOrder));
+        try {
+            buffer.write(ORDER_NUMBER);
+            writeString(buffer, userOrder.orderNumber());
+            buffer.write(USER_NAME);
+            writeString(buffer, userOrder.userName());
+            buffer.write(PHONE_NUMBER);
+            writeString(buffer, userOrder.phoneNumber());
+            buffer.write(PRODUCT_CODE);
+            writeString(buffer, userOrder.productCode());
+            buffer.write(PRODUCT_NAME);
+            writeString(buffer, userOrder.productName());
+            buffer.write(PRODUCT_ID);
+            writeString(buffer, userOrder.productId());
+
+            var topProducts = userOrder.topProducts();
+            if (topProducts != null) {
+                buffer.write(TOP_PRODUCTS);
+                for (int i = 0; i < topProducts.size(); i++) {
+                    if (i > 0) {
+                        buffer.write((byte) ',');
+                    }
+                    writeProduct(buffer, topProducts.get(i));
+                }
+                buffer.write((byte) ']');
+            }
+
+            buffer.write((byte) '}');
+            if (lineSeparator) {
+                buffer.write((byte) '\n');
+            }
+            return buffer;
+        } catch (RuntimeException e) {
+            DataBufferUtils.release(buffer);
+            throw e;
+        }
+    }
+
+    private static void writeProduct(DataBuffer buffer, Product product) {
+        if (product == null) {
+            buffer.write(NULL);
+            return;
+        }
+        buffer.write(TOP_PRODUCT_ID);
+        writeString(buffer, product.productId());
+        buffer.write(TOP_PRODUCT_CODE);
+        writeString(buffer, product.productCode());
+        buffer.write(TOP_PRODUCT_NAME);
+        writeString(buffer, product.productName());
+        buffer.write(TOP_PRODUCT_SCORE);
+        writeDouble(buffer, product.score());
+        buffer.write((byte) '}');
+    }
+
+    private static void writeDouble(DataBuffer buffer, double value) {
+        boolean quoted = Double.isNaN(value) || Double.isInfinite(value);
+        if (quoted) {
+            buffer.write((byte) '"');
+        }
+        // only digits, sign, dot and E or the letters of NaN/Infinity, all ASCII
+        var text = Double.toString(value);
+        for (int i = 0; i < text.length(); i++) {
+            buffer.write((byte) text.charAt(i));
+        }
+        if (quoted) {
+            buffer.write((byte) '"');
+        }
+    }
+
+    private static void writeString(DataBuffer buffer, @Nullable String value) {
+        if (value == null) {
+            buffer.write(NULL);
+            return;
+        }
+        buffer.write((byte) '"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                int escape = ASCII_ESCAPES[c];
+                if (escape == 0) {
+                    buffer.write((byte) c);
+                } else if (escape > 0) {
+                    buffer.write((byte) '\\');
+                    buffer.write((byte) escape);
+                } else {
+                    writeUnicodeEscape(buffer, c);
+                }
+            } else if (c < 0x800) {
+                buffer.write((byte) (0xC0 | (c >> 6)));
+                buffer.write((byte) (0x80 | (c & 0x3F)));
+            } else if (Character.isSurrogate(c)) {
+                writeUnicodeEscape(buffer, c);
+            } else {
+                buffer.write((byte) (0xE0 | (c >> 12)));
+                buffer.write((byte) (0x80 | ((c >> 6) & 0x3F)));
+                buffer.write((byte) (0x80 | (c & 0x3F)));
+            }
+        }
+        buffer.write((byte) '"');
+    }
+
+    private static void writeUnicodeEscape(DataBuffer buffer, char c) {
+        buffer.write((byte) '\\');
+        buffer.write((byte) 'u');
+        buffer.write(HEX[(c >> 12) & 0xF]);
+        buffer.write(HEX[(c >> 8) & 0xF]);
+        buffer.write(HEX[(c >> 4) & 0xF]);
+        buffer.write(HEX[c & 0xF]);
+    }
+
+    // exact for ASCII content, the buffer grows when escapes or multibyte characters don't fit
+    private static int estimateSize(UserOrder userOrder) {
+        int size = 128
+                + length(userOrder.orderNumber())
+                + length(userOrder.userName())
+                + length(userOrder.phoneNumber())
+                + length(userOrder.productCode())
+                + length(userOrder.productName())
+                + length(userOrder.productId());
+        var topProducts = userOrder.topProducts();
+        if (topProducts != null) {
+            for (Product product : topProducts) {
+                size += 96;
+                if (product != null) {
+                    size += length(product.productId()) + length(product.productCode()) + length(product.productName());
+                }
+            }
+        }
+        return size;
+    }
+
+    private static int length(@Nullable String value) {
+        return value == null ? 4 : value.length();
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
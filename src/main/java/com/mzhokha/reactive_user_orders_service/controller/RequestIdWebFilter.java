@@ -0,0 +1,30 @@
+package com.mzhokha.reactive_user_orders_service.controller;
+
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ServerWebExchange;
+import org.springframework.web.server.WebFilter;
+import org.springframework.web.server.WebFilterChain;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+
+import static com.mzhokha.reactive_user_orders_service.util.LogUtil.CONTEXT_REQUEST_ID;
+
+/*
+    Puts requestId header into the Reactor Context of the whole exchange, so every operator of the response
+    pipeline sees it no matter which thread it runs on. Nothing is stored in thread locals of the event loop.
+ */
+@Component
+public class RequestIdWebFilter implements WebFilter {
+
+    static final String REQUEST_ID_HEADER = "requestId";
+
+    @Override
+    public Mono<Void> filter(ServerWebExchange exchange, WebFilterChain chain) {
+        var requestId = exchange.getRequest().getHeaders().getFirst(REQUEST_ID_HEADER);
+        if (requestId == null) {
+            return chain.filter(exchange);
+        }
+        return chain.filter(exchange)
+                .contextWrite(Context.of(CONTEXT_REQUEST_ID, requestId));
+    }
+}
@@ -1,25 +1,77 @@
 package com.mzhokha.reactive_user_orders_service.controller;
 
+import com.mzhokha.reactive_user_orders_service.response.BulkUserOrder;
 import com.mzhokha.reactive_user_orders_service.response.UserOrder;
 import com.mzhokha.reactive_user_orders_service.service.UserOrdersService;
+import com.mzhokha.reactive_user_orders_service.service.UserOrdersViewService;
+import com.mzhokha.reactive_user_orders_service.service.VirtualThreadUserOrdersService;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ResponseStatusException;
 import reactor.core.publisher.Flux;
 
-import static com.mzhokha.reactive_user_orders_service.util.LogUtil.putRequestIdIntoMdc;
+import java.util.List;
 
 @RestController
 @RequestMapping("/userOrdersService")
 public class UserOrdersController {
 
+    static final int MAX_TOP_K = 100;
+
+    static final int MAX_BULK_USER_IDS = 1000;
+
+    // HIT, STALE or MISS when the response cache is enabled
+    static final String CACHE_STATUS_HEADER = "X-Cache";
+
     @Autowired
     private UserOrdersService userOrdersService;
 
+    // present only with user.orders.execution.mode=virtual-threads, serves GET /user/orders instead of userOrdersService
+    @Autowired(required = false)
+    private VirtualThreadUserOrdersService virtualThreadUserOrdersService;
+
+    // present only with user.orders.view.enabled=true, serves GET /user/orders without k from user_orders collection
+    @Autowired(required = false)
+    private UserOrdersViewService userOrdersViewService;
+
+    // requestId header is picked up by RequestIdWebFilter
+    // k - optional, when present each UserOrder carries k products with the highest score
     @GetMapping(value = "/user/orders", produces = MediaType.APPLICATION_NDJSON_VALUE)
-    public Flux<UserOrder> getUserOrders(@RequestParam String userId,
-                                         @RequestHeader("requestId") String requestId) {
-        putRequestIdIntoMdc(requestId != null ? requestId : "");
-        return this.userOrdersService.getOrdersByUserId(userId);
+    public ResponseEntity<Flux<UserOrder>> getUserOrders(@RequestParam String userId,
+                                                         @RequestParam(required = false) Integer k) {
+        if (k != null && (k < 1 || k > MAX_TOP_K)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "k must be between 1 and " + MAX_TOP_K);
+        }
+        if (this.virtualThreadUserOrdersService != null) {
+            return ResponseEntity.ok().body(this.virtualThreadUserOrdersService.getOrdersByUserId(userId, k));
+        }
+        if (this.userOrdersViewService != null && k == null) {
+            return ResponseEntity.ok().body(this.userOrdersViewService.getOrdersByUserId(userId));
+        }
+        var cachedUserOrders = this.userOrdersService.getCachedOrdersByUserId(userId, k);
+
+        var response = ResponseEntity.ok();
+        if (cachedUserOrders.cacheStatus() != null) {
+            response.header(CACHE_STATUS_HEADER, cachedUserOrders.cacheStatus().name());
+        }
+        return response.body(cachedUserOrders.userOrders());
+    }
+
+    // Body: ["user1","user2",...], response is one stream with orders of all users tagged with userId
+    @PostMapping(value = "/users/orders",
+            consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BulkUserOrder> getUsersOrders(@RequestBody List<String> userIds,
+                                              @RequestParam(required = false) Integer k) {
+        if (userIds.isEmpty() || userIds.size() > MAX_BULK_USER_IDS) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "between 1 and " + MAX_BULK_USER_IDS + " userIds expected");
+        }
+        if (k != null && (k < 1 || k > MAX_TOP_K)) {
+            throw new ResponseStatusException(HttpStatus.BAD_REQUEST, "k must be between 1 and " + MAX_TOP_K);
+        }
+        return this.userOrdersService.getOrdersByUserIds(userIds, k);
     }
 }
@@ -0,0 +1,90 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mzhokha.reactive_user_orders_service.external.model.Order;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/*
+    Blocking counterpart of OrderSearchServiceClient for the virtual-threads execution mode,
+    JDK HttpClient with a virtual thread per exchange. Meant to be called from virtual threads only.
+ */
+@Component
+@ConditionalOnProperty(name = "user.orders.execution.mode", havingValue = "virtual-threads")
+public class BlockingOrderSearchServiceClient implements InitializingBean {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+
+    // wait for response headers and for each read of the body
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    @Value("${order.search.service.base.url}")
+    String orderSearchServiceBaseUrl;
+
+    private final ObjectMapper objectMapper;
+
+    private HttpClient httpClient;
+
+    public BlockingOrderSearchServiceClient(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        this.httpClient = HttpClient.newBuilder()
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .connectTimeout(CONNECT_TIMEOUT)
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+    }
+
+    // http://localhost:8083/orderSearchService/order/phone?phoneNumber=123456789
+    // NDJSON orders are passed to the consumer one by one as lines arrive, JSON array once it's read
+    public void forEachOrderByPhoneNumber(String phoneNumber, Consumer<Order> consumer) throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder(URI.create(this.orderSearchServiceBaseUrl
+                        + "/orderSearchService/order/phone?phoneNumber=" + URLEncoder.encode(phoneNumber, StandardCharsets.UTF_8)))
+                .timeout(REQUEST_TIMEOUT)
+                .GET()
+                .build();
+        var response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+        try (var body = new ReadTimeoutInputStream(response.body(), REQUEST_TIMEOUT)) {
+            if (response.statusCode() != 200) {
+                throw new IOException("order-search-service responded with " + response.statusCode() + " for phone number " + phoneNumber);
+            }
+            var contentType = response.headers().firstValue("Content-Type").orElse("");
+            if (!contentType.startsWith("application/x-ndjson")) {
+                for (Order order : this.objectMapper.readValue(body, Order[].class)) {
+                    consumer.accept(order);
+                }
+                return;
+            }
+            var lines = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+            String line;
+            while ((line = lines.readLine()) != null) {
+                if (!line.isBlank()) {
+                    consumer.accept(this.objectMapper.readValue(line, Order.class));
+                }
+            }
+        }
+    }
+
+    public void setOrderSearchServiceBaseUrl(String orderSearchServiceBaseUrl) {
+        this.orderSearchServiceBaseUrl = orderSearchServiceBaseUrl;
+    }
+}
@@ -0,0 +1,154 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import com.mzhokha.reactive_user_orders_service.util.ProductRanking;
+import com.mzhokha.reactive_user_orders_service.util.TopProducts;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+    Blocking counterpart of ProductInfoServiceClient for the virtual-threads execution mode.
+    Same product cache settings. Cache is async on purpose: a synchronous Caffeine load runs inside
+    ConcurrentHashMap.compute, which would pin the carrier thread for the whole HTTP call.
+ */
+@Component
+@ConditionalOnProperty(name = "user.orders.execution.mode", havingValue = "virtual-threads")
+public class BlockingProductInfoServiceClient implements InitializingBean, DisposableBean {
+
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(2);
+
+    private static final TypeReference<List<Product>> PRODUCT_LIST = new TypeReference<>() {};
+
+    @Value("${product.info.service.base.url}")
+    String productInfoServiceBaseUrl;
+
+    // same as the product lookup timeout of the reactive pipeline, bounds the wait for headers and each body read
+    @Value("${user.orders.product.lookup.timeout}")
+    Duration requestTimeout = Duration.ofSeconds(5);
+
+    @Value("${product.info.service.cache.enabled}")
+    boolean cacheEnabled = true;
+
+    @Value("${product.info.service.cache.max.size}")
+    long cacheMaxSize = 10_000;
+
+    @Value("${product.info.service.cache.ttl}")
+    Duration cacheTtl = Duration.ofMinutes(1);
+
+    private final ObjectMapper objectMapper;
+
+    private ExecutorService executor;
+
+    private HttpClient httpClient;
+
+    private AsyncCache<String, List<Product>> productsCache;
+
+    public BlockingProductInfoServiceClient(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+        this.httpClient = HttpClient.newBuilder()
+                .executor(this.executor)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .version(HttpClient.Version.HTTP_1_1)
+                .build();
+        if (this.cacheEnabled) {
+            this.productsCache = Caffeine.newBuilder()
+                    .maximumSize(this.cacheMaxSize)
+                    .expireAfterWrite(this.cacheTtl)
+                    .executor(this.executor)
+                    .buildAsync();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.executor.close();
+    }
+
+    public Product getBestProductByCode(String productCode) throws IOException, InterruptedException {
+        return ProductRanking.best(getProductsByCode(productCode));
+    }
+
+    // k products with the highest score for the product code, highest score first
+    public List<Product> getTopProductsByCode(String productCode, int k) throws IOException, InterruptedException {
+        return TopProducts.of(getProductsByCode(productCode), k);
+    }
+
+    // concurrent lookups of the same code wait for one in-flight request, failed lookups are not cached
+    public List<Product> getProductsByCode(String productCode) throws IOException, InterruptedException {
+        if (this.productsCache == null) {
+            return fetchProductsByCode(productCode);
+        }
+        CompletableFuture<List<Product>> products = this.productsCache.get(productCode, (code, executor) ->
+                CompletableFuture.supplyAsync(() -> {
+                    try {
+                        return fetchProductsByCode(code);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CompletionException(e);
+                    }
+                }, executor));
+        try {
+            return products.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IOException("Product lookup for " + productCode + " failed", e.getCause());
+        }
+    }
+
+    // http://localhost:8082/productInfoService/product/names?productCode=Milk
+    List<Product> fetchProductsByCode(String productCode) throws IOException, InterruptedException {
+        var request = HttpRequest.newBuilder(URI.create(this.productInfoServiceBaseUrl
+                        + "/productInfoService/product/names?productCode=" + URLEncoder.encode(productCode, StandardCharsets.UTF_8)))
+                .timeout(this.requestTimeout)
+                .GET()
+                .build();
+        var response = this.httpClient.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+        try (var body = new ReadTimeoutInputStream(response.body(), this.requestTimeout)) {
+            if (response.statusCode() != 200) {
+                throw new IOException("product-info-service responded with " + response.statusCode() + " for product code " + productCode);
+            }
+            return this.objectMapper.readValue(body, PRODUCT_LIST);
+        }
+    }
+
+    public void setProductInfoServiceBaseUrl(String productInfoServiceBaseUrl) {
+        this.productInfoServiceBaseUrl = productInfoServiceBaseUrl;
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+}
@@ -0,0 +1,74 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.mzhokha.reactive_user_orders_service.external.model.Order;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/*
+    Orders received from order-search-service per phone number, bounded by the total number of orders.
+
+    lastOrderNumber is the cursor of incremental refresh: order-search-service streams orders oldest first,
+    so orders after the last received one are the new ones. loadedAtNanos is the time of the last full load,
+    increments don't change it.
+ */
+class OrderHistoryCache {
+
+    record OrderHistory(List<Order> orders, Set<String> orderNumbers, String lastOrderNumber, long loadedAtNanos) {
+
+        static OrderHistory of(List<Order> orders, long loadedAtNanos) {
+            return new OrderHistory(
+                    List.copyOf(orders),
+                    orders.stream().map(Order::orderNumber).collect(Collectors.toUnmodifiableSet()),
+                    orders.isEmpty() ? null : orders.get(orders.size() - 1).orderNumber(),
+                    loadedAtNanos);
+        }
+
+        boolean contains(String orderNumber) {
+            return this.orderNumbers.contains(orderNumber);
+        }
+    }
+
+    private final Cache<String, OrderHistory> cache;
+
+    OrderHistoryCache(String name, long maxOrders, MeterRegistry meterRegistry) {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxOrders)
+                .weigher((String phoneNumber, OrderHistory history) -> Math.max(1, history.orders().size()))
+                .recordStats()
+                .build();
+        // cache.gets{result=hit|miss}, cache.evictions, cache.size
+        CaffeineCacheMetrics.monitor(meterRegistry, this.cache, name);
+    }
+
+    // null when the phone number has no history
+    OrderHistory get(String phoneNumber) {
+        return this.cache.getIfPresent(phoneNumber);
+    }
+
+    void putFull(String phoneNumber, List<Order> orders) {
+        this.cache.put(phoneNumber, OrderHistory.of(orders, System.nanoTime()));
+    }
+
+    // new orders are appended to the history present now, which may already have them from a concurrent refresh;
+    // a history evicted meanwhile is not brought back with the increment only
+    void append(String phoneNumber, List<Order> newOrders) {
+        if (newOrders.isEmpty()) {
+            return;
+        }
+        this.cache.asMap().computeIfPresent(phoneNumber, (key, history) -> {
+            Map<String, Order> byOrderNumber = new LinkedHashMap<>();
+            history.orders().forEach(order -> byOrderNumber.put(order.orderNumber(), order));
+            newOrders.forEach(order -> byOrderNumber.put(order.orderNumber(), order));
+            return OrderHistory.of(new ArrayList<>(byOrderNumber.values()), history.loadedAtNanos());
+        });
+    }
+}
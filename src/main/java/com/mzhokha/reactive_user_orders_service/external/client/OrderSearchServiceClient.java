@@ -1,40 +1,343 @@
 package com.mzhokha.reactive_user_orders_service.external.client;
 
 import com.mzhokha.reactive_user_orders_service.external.model.Order;
+import com.mzhokha.reactive_user_orders_service.external.resilience.AdaptiveConcurrencyLimiter;
+import com.mzhokha.reactive_user_orders_service.external.resilience.CircuitBreakerBulkhead;
+import com.mzhokha.reactive_user_orders_service.util.DegradationUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.core.publisher.Flux;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
 
 @Component
-public class OrderSearchServiceClient implements InitializingBean {
+public class OrderSearchServiceClient implements InitializingBean, DisposableBean {
+
+    private static Logger log = LoggerFactory.getLogger(OrderSearchServiceClient.class);
+
+    static final Duration SINCE_RETRY_INTERVAL = Duration.ofMinutes(1);
 
     @Value("${order.search.service.base.url}")
     String orderSearchServiceBaseUrl;
 
+    @Value("${order.search.service.pool.max.connections}")
+    int poolMaxConnections = 100;
+
+    @Value("${order.search.service.pool.pending.acquire.max.count}")
+    int poolPendingAcquireMaxCount = 500;
+
+    @Value("${order.search.service.pool.pending.acquire.timeout}")
+    Duration poolPendingAcquireTimeout = Duration.ofSeconds(2);
+
+    @Value("${order.search.service.pool.max.idle.time}")
+    Duration poolMaxIdleTime = Duration.ofSeconds(30);
+
+    @Value("${order.search.service.pool.max.life.time}")
+    Duration poolMaxLifeTime = Duration.ofMinutes(5);
+
+    @Value("${order.search.service.pool.eviction.interval}")
+    Duration poolEvictionInterval = Duration.ofSeconds(30);
+
+    @Value("${order.search.service.pool.keep.alive}")
+    boolean poolKeepAlive = true;
+
+    @Value("${order.search.service.pool.h2c}")
+    boolean poolH2c = false;
+
+    // wait for each read of a response, a call timing out is a failure for the circuit breaker
+    @Value("${order.search.service.response.timeout}")
+    Duration responseTimeout = Duration.ofSeconds(30);
+
+    @Value("${order.search.service.cache.enabled}")
+    boolean cacheEnabled = false;
+
+    // total number of orders kept across phone numbers
+    @Value("${order.search.service.cache.max.orders}")
+    long cacheMaxOrders = 1_000_000;
+
+    // history older than this is loaded in full instead of incrementally, picks up changed and removed orders
+    @Value("${order.search.service.cache.full.reload.interval}")
+    Duration cacheFullReloadInterval = Duration.ofMinutes(10);
+
+    @Value("${order.search.service.concurrency.limit.enabled}")
+    boolean concurrencyLimitEnabled = true;
+
+    @Value("${order.search.service.concurrency.limit.initial}")
+    int concurrencyLimitInitial = 20;
+
+    @Value("${order.search.service.concurrency.limit.min}")
+    int concurrencyLimitMin = 5;
+
+    @Value("${order.search.service.concurrency.limit.max}")
+    int concurrencyLimitMax = 200;
+
+    @Value("${order.search.service.concurrency.limit.latency.threshold}")
+    Duration concurrencyLimitLatencyThreshold = Duration.ofSeconds(10);
+
+    @Value("${order.search.service.concurrency.limit.backoff.ratio}")
+    double concurrencyLimitBackoffRatio = 0.9;
+
+    @Value("${order.search.service.concurrency.limit.max.queue.size}")
+    int concurrencyLimitMaxQueueSize = 1000;
+
+    @Value("${order.search.service.circuit.breaker.enabled}")
+    boolean circuitBreakerEnabled = true;
+
+    @Value("${order.search.service.circuit.breaker.sliding.window.size}")
+    int circuitBreakerSlidingWindowSize = 50;
+
+    @Value("${order.search.service.circuit.breaker.failure.rate.threshold}")
+    float circuitBreakerFailureRateThreshold = 50;
+
+    @Value("${order.search.service.circuit.breaker.slow.call.rate.threshold}")
+    float circuitBreakerSlowCallRateThreshold = 80;
+
+    @Value("${order.search.service.circuit.breaker.slow.call.duration.threshold}")
+    Duration circuitBreakerSlowCallDurationThreshold = Duration.ofSeconds(30);
+
+    @Value("${order.search.service.circuit.breaker.wait.duration.in.open.state}")
+    Duration circuitBreakerWaitDurationInOpenState = Duration.ofSeconds(10);
+
+    @Value("${order.search.service.circuit.breaker.permitted.calls.in.half.open.state}")
+    int circuitBreakerPermittedCallsInHalfOpenState = 5;
+
+    @Value("${order.search.service.bulkhead.max.concurrent.calls}")
+    int bulkheadMaxConcurrentCalls = 500;
+
+    @Autowired(required = false)
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+    private ConnectionProvider connectionProvider;
+
     private WebClient webClient;
 
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private CircuitBreakerBulkhead circuitBreakerBulkhead;
+
+    private OrderHistoryCache orderHistoryCache;
+
+    private Counter fullLoads;
+
+    private Counter incrementLoads;
+
+    // since parameter is not sent until then after order-search-service rejected it
+    private volatile long sinceUnsupportedUntil;
+
     @Override
     public void afterPropertiesSet() throws Exception {
+        var poolSettings = new UpstreamHttpClients.PoolSettings(
+                this.poolMaxConnections,
+                this.poolPendingAcquireMaxCount,
+                this.poolPendingAcquireTimeout,
+                this.poolMaxIdleTime,
+                this.poolMaxLifeTime,
+                this.poolEvictionInterval,
+                this.poolKeepAlive,
+                this.poolH2c,
+                this.responseTimeout);
+        this.connectionProvider = UpstreamHttpClients.connectionProvider("order-search", poolSettings);
+
         this.webClient = WebClient.builder()
+                .clientConnector(UpstreamHttpClients.clientConnector(this.connectionProvider, poolSettings))
                 .baseUrl(this.orderSearchServiceBaseUrl + "/orderSearchService")
                 .build();
+
+        if (this.circuitBreakerEnabled) {
+            this.circuitBreakerBulkhead = new CircuitBreakerBulkhead("order-search",
+                    new CircuitBreakerBulkhead.Settings(
+                            this.circuitBreakerSlidingWindowSize,
+                            this.circuitBreakerFailureRateThreshold,
+                            this.circuitBreakerSlowCallRateThreshold,
+                            this.circuitBreakerSlowCallDurationThreshold,
+                            this.circuitBreakerWaitDurationInOpenState,
+                            this.circuitBreakerPermittedCallsInHalfOpenState,
+                            this.bulkheadMaxConcurrentCalls),
+                    this.meterRegistry);
+        }
+
+        if (this.concurrencyLimitEnabled) {
+            this.concurrencyLimiter = new AdaptiveConcurrencyLimiter("order-search",
+                    new AdaptiveConcurrencyLimiter.Settings(
+                            this.concurrencyLimitInitial,
+                            this.concurrencyLimitMin,
+                            this.concurrencyLimitMax,
+                            this.concurrencyLimitLatencyThreshold,
+                            this.concurrencyLimitBackoffRatio,
+                            this.concurrencyLimitMaxQueueSize),
+                    this.meterRegistry);
+        }
+
+        if (this.cacheEnabled) {
+            this.orderHistoryCache = new OrderHistoryCache("order-search", this.cacheMaxOrders, this.meterRegistry);
+            this.fullLoads = loadCounter("full");
+            this.incrementLoads = loadCounter("increment");
+        }
+    }
+
+    @Override
+    public void destroy() {
+        this.connectionProvider.dispose();
+    }
+
+    /*
+        With the cache enabled orders received before for the phone number are emitted right away,
+        then only orders after the last received one are requested (since parameter) and appended.
+        First lookup, history older than cacheFullReloadInterval, or order-search-service not accepting since
+        load all orders. When the increment fails otherwise cached orders are all the caller gets.
+     */
+    public Flux<Order> getOrdersByPhoneNumber(String phoneNumber) {
+        var orders = this.orderHistoryCache == null
+                ? fetchOrdersByPhoneNumber(phoneNumber, null)
+                : getCachedOrdersByPhoneNumber(phoneNumber);
+        if (this.circuitBreakerBulkhead != null) {
+            // while order-search-service is unhealthy user gets empty list of orders right away
+            orders = orders.onErrorResume(CircuitBreakerBulkhead::isRejected, e -> {
+                log.debug("Order search for phone number {} rejected: {}", phoneNumber, e.getMessage());
+                return DegradationUtil.degradedEmpty();
+            });
+        }
+        return orders;
+    }
+
+    private Flux<Order> getCachedOrdersByPhoneNumber(String phoneNumber) {
+        return Flux.defer(() -> {
+            var history = this.orderHistoryCache.get(phoneNumber);
+            if (history == null
+                    || history.lastOrderNumber() == null
+                    || System.nanoTime() - history.loadedAtNanos() > this.cacheFullReloadInterval.toNanos()
+                    || System.nanoTime() - this.sinceUnsupportedUntil < 0) {
+                this.fullLoads.increment();
+                return loadAllOrders(phoneNumber);
+            }
+            this.incrementLoads.increment();
+            return Flux.fromIterable(history.orders())
+                    .concatWith(loadNewOrders(phoneNumber, history));
+        });
+    }
+
+    private Flux<Order> loadAllOrders(String phoneNumber) {
+        return Flux.defer(() -> {
+            List<Order> received = new ArrayList<>();
+            return fetchOrdersByPhoneNumber(phoneNumber, null)
+                    .doOnNext(received::add)
+                    // cancelled or failed load is not cached
+                    .doOnComplete(() -> this.orderHistoryCache.putFull(phoneNumber, received));
+        });
+    }
+
+    // orders of history are already emitted, only the others are passed on
+    private Flux<Order> loadNewOrders(String phoneNumber, OrderHistoryCache.OrderHistory history) {
+        return Flux.defer(() -> {
+            List<Order> received = new ArrayList<>();
+            return fetchOrdersByPhoneNumber(phoneNumber, history.lastOrderNumber())
+                    .filter(order -> !history.contains(order.orderNumber()))
+                    .doOnNext(received::add)
+                    .doOnComplete(() -> this.orderHistoryCache.append(phoneNumber, received));
+        }).onErrorResume(e -> {
+            if (isSinceRejected(e)) {
+                this.sinceUnsupportedUntil = System.nanoTime() + SINCE_RETRY_INTERVAL.toNanos();
+                log.warn("Order search rejected since parameter, loading all orders: {}", e.getMessage());
+                return loadAllOrders(phoneNumber)
+                        .filter(order -> !history.contains(order.orderNumber()));
+            }
+            if (!CircuitBreakerBulkhead.isRejected(e)) {
+                log.warn("Loading new orders for phone number {} failed, returning cached orders: {}", phoneNumber, e.toString());
+            }
+            return DegradationUtil.degradedEmpty();
+        });
     }
 
     // http://localhost:8083/orderSearchService/order/phone?phoneNumber=123456789
     // [{"phoneNumber":"123456789","orderNumber":"Order_0","productCode":"3852"},...]
-    public Flux<Order> getOrdersByPhoneNumber(String phoneNumber) {
-        return this.webClient.get().uri(uriBuilder ->
+    // since - when present only orders after the order with this number are returned
+    private Flux<Order> fetchOrdersByPhoneNumber(String phoneNumber, String since) {
+        var orders = this.webClient.get().uri(uriBuilder ->
                         uriBuilder.path("/order/phone")
                                 .queryParam("phoneNumber", phoneNumber)
+                                .queryParamIfPresent("since", Optional.ofNullable(since))
                                 .build()
                 )
                 .retrieve()
                 .bodyToFlux(Order.class);
+        if (this.concurrencyLimiter != null) {
+            orders = this.concurrencyLimiter.limit(orders);
+        }
+        if (this.circuitBreakerBulkhead != null) {
+            orders = this.circuitBreakerBulkhead.guard(orders);
+        }
+        return orders;
+    }
+
+    private static boolean isSinceRejected(Throwable e) {
+        if (!(e instanceof WebClientResponseException responseException)) {
+            return false;
+        }
+        int status = responseException.getStatusCode().value();
+        return status == HttpStatus.BAD_REQUEST.value()
+                || status == HttpStatus.NOT_FOUND.value()
+                || status == HttpStatus.UNPROCESSABLE_ENTITY.value()
+                || status == HttpStatus.NOT_IMPLEMENTED.value();
+    }
+
+    private Counter loadCounter(String load) {
+        return Counter.builder("order.search.cache.loads")
+                .tag("load", load)
+                .register(this.meterRegistry);
     }
 
     public void setOrderSearchServiceBaseUrl(String orderSearchServiceBaseUrl) {
         this.orderSearchServiceBaseUrl = orderSearchServiceBaseUrl;
     }
+
+    public void setPoolMaxConnections(int poolMaxConnections) {
+        this.poolMaxConnections = poolMaxConnections;
+    }
+
+    public void setPoolPendingAcquireMaxCount(int poolPendingAcquireMaxCount) {
+        this.poolPendingAcquireMaxCount = poolPendingAcquireMaxCount;
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    public void setCacheFullReloadInterval(Duration cacheFullReloadInterval) {
+        this.cacheFullReloadInterval = cacheFullReloadInterval;
+    }
+
+    public void setConcurrencyLimitEnabled(boolean concurrencyLimitEnabled) {
+        this.concurrencyLimitEnabled = concurrencyLimitEnabled;
+    }
+
+    public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+        this.circuitBreakerEnabled = circuitBreakerEnabled;
+    }
+
+    public void setCircuitBreakerSlidingWindowSize(int circuitBreakerSlidingWindowSize) {
+        this.circuitBreakerSlidingWindowSize = circuitBreakerSlidingWindowSize;
+    }
+
+    public void setResponseTimeout(Duration responseTimeout) {
+        this.responseTimeout = responseTimeout;
+    }
+
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
 }
@@ -0,0 +1,247 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import com.mzhokha.reactive_user_orders_service.util.ProductRanking;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+    Best product per product code served from memory (ProductCatalogSnapshot).
+
+    At start the snapshot is read from the file left by the previous run, then initial codes missing in it
+    are loaded through the batch endpoint. Codes looked up over HTTP are added as they come (up to maxCodes).
+    product-info-service has no "changed since" query, so each refresh re-fetches the next refreshCodes codes
+    of the snapshot round-robin: upstream load per refresh is bounded and every code is refreshed
+    once per size / refreshCodes intervals. Codes the upstream no longer returns are dropped,
+    codes of a failed batch keep their previous product.
+
+    Each refresh swaps in a new snapshot and writes it to the file, lookups never wait for a refresh.
+ */
+class ProductCatalog implements Disposable {
+
+    private static Logger log = LoggerFactory.getLogger(ProductCatalog.class);
+
+    // file is null when the snapshot isn't persisted
+    record Settings(Path file,
+                    Collection<String> initialCodes,
+                    int maxCodes,
+                    Duration refreshInterval,
+                    int refreshCodes,
+                    int batchSize) {
+    }
+
+    private final Settings settings;
+
+    private final Function<Collection<String>, Mono<List<Product>>> batchFetch;
+
+    private volatile ProductCatalogSnapshot snapshot = ProductCatalogSnapshot.EMPTY;
+
+    // looked up over HTTP since the last refresh, merged into the snapshot by the next one
+    private final Map<String, Product> added = new ConcurrentHashMap<>();
+
+    // next snapshot index to refresh, touched by the refresh loop only
+    private int refreshCursor;
+
+    private final Counter hits;
+
+    private final Counter misses;
+
+    private Disposable refresher;
+
+    ProductCatalog(String name,
+                   Settings settings,
+                   Function<Collection<String>, Mono<List<Product>>> batchFetch,
+                   MeterRegistry meterRegistry) {
+        this.settings = settings;
+        this.batchFetch = batchFetch;
+        this.hits = Counter.builder("product.catalog.lookups").tag("catalog", name).tag("result", "hit").register(meterRegistry);
+        this.misses = Counter.builder("product.catalog.lookups").tag("catalog", name).tag("result", "miss").register(meterRegistry);
+        Gauge.builder("product.catalog.codes", this, catalog -> catalog.snapshot.size() + catalog.added.size())
+                .tag("catalog", name)
+                .register(meterRegistry);
+        Gauge.builder("product.catalog.heap", this, catalog -> catalog.snapshot.heapBytes())
+                .tag("catalog", name)
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    void start() {
+        readFile();
+        this.refresher = loadInitialCodes()
+                .thenMany(Flux.interval(this.settings.refreshInterval())
+                        .onBackpressureDrop()
+                        .concatMap(tick -> refresh(), 1))
+                .subscribe();
+    }
+
+    @Override
+    public void dispose() {
+        if (this.refresher != null) {
+            this.refresher.dispose();
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return this.refresher != null && this.refresher.isDisposed();
+    }
+
+    // null when the code is not in the catalog
+    Product get(String productCode) {
+        var product = this.snapshot.get(productCode);
+        if (product == null) {
+            product = this.added.get(productCode);
+        }
+        (product != null ? this.hits : this.misses).increment();
+        return product;
+    }
+
+    // orders without products are not kept, they are retried over HTTP
+    void add(String productCode, Product product) {
+        if (product == ProductRanking.NO_PRODUCT) {
+            return;
+        }
+        if (this.snapshot.size() + this.added.size() < this.settings.maxCodes()) {
+            this.added.put(productCode, product);
+        }
+    }
+
+    ProductCatalogSnapshot snapshot() {
+        return this.snapshot;
+    }
+
+    Mono<Void> refresh() {
+        return Mono.defer(() -> {
+            var current = this.snapshot;
+            var addedNow = Map.copyOf(this.added);
+            var codes = new LinkedHashSet<String>();
+            int count = Math.min(this.settings.refreshCodes(), current.size());
+            for (int i = 0; i < count; i++) {
+                codes.add(current.code((this.refreshCursor + i) % current.size()));
+            }
+            this.refreshCursor = current.size() == 0 ? 0 : (this.refreshCursor + count) % current.size();
+            codes.removeAll(addedNow.keySet());
+
+            return fetch(codes).flatMap(fetched -> {
+                var updated = new HashMap<>(addedNow);
+                updated.putAll(fetched.bestByCode());
+                var next = current.with(updated, fetched.missing());
+                this.snapshot = next;
+                addedNow.forEach((code, product) -> this.added.remove(code, product));
+                return writeFile(next);
+            });
+        }).onErrorResume(e -> {
+            log.warn("Product catalog refresh failed", e);
+            return Mono.empty();
+        });
+    }
+
+    // missing - codes of successful batches the upstream returned no products for
+    record Fetched(Map<String, Product> bestByCode, Set<String> missing) {
+    }
+
+    private Mono<Fetched> fetch(Collection<String> codes) {
+        var chunks = new ArrayList<List<String>>();
+        var chunk = new ArrayList<String>();
+        for (var code : codes) {
+            chunk.add(code);
+            if (chunk.size() == this.settings.batchSize()) {
+                chunks.add(chunk);
+                chunk = new ArrayList<>();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk);
+        }
+
+        return Flux.fromIterable(chunks)
+                .concatMap(codesOfChunk -> this.batchFetch.apply(codesOfChunk)
+                        .map(products -> {
+                            Map<String, Product> bestByCode = products.stream()
+                                    .collect(Collectors.toMap(Product::productCode, product -> product, ProductRanking::higherScore));
+                            bestByCode.keySet().retainAll(codesOfChunk);
+                            var missing = new HashSet<>(codesOfChunk);
+                            missing.removeAll(bestByCode.keySet());
+                            return new Fetched(bestByCode, missing);
+                        })
+                        .onErrorResume(e -> {
+                            log.warn("Product catalog fetch of {} codes failed, keeping their products", codesOfChunk.size(), e);
+                            return Mono.empty();
+                        }))
+                .reduce(new Fetched(new HashMap<>(), new HashSet<>()), (all, fetched) -> {
+                    all.bestByCode().putAll(fetched.bestByCode());
+                    all.missing().addAll(fetched.missing());
+                    return all;
+                });
+    }
+
+    private Mono<Void> loadInitialCodes() {
+        return Mono.defer(() -> {
+            var codes = new LinkedHashSet<>(this.settings.initialCodes());
+            codes.removeIf(code -> this.snapshot.get(code) != null);
+            if (codes.isEmpty()) {
+                return Mono.empty();
+            }
+            return fetch(codes).flatMap(fetched -> {
+                var next = this.snapshot.with(fetched.bestByCode(), Set.of());
+                this.snapshot = next;
+                log.info("Product catalog loaded {} of {} initial codes", fetched.bestByCode().size(), codes.size());
+                return writeFile(next);
+            });
+        }).onErrorResume(e -> {
+            log.warn("Product catalog initial load failed", e);
+            return Mono.empty();
+        });
+    }
+
+    private void readFile() {
+        var file = this.settings.file();
+        if (file == null || !Files.exists(file)) {
+            return;
+        }
+        try {
+            this.snapshot = ProductCatalogSnapshot.readFrom(file);
+            log.info("Product catalog of {} codes read from {}", this.snapshot.size(), file);
+        } catch (Exception e) {
+            log.warn("Failed to read product catalog from {}, starting empty", file, e);
+        }
+    }
+
+    private Mono<Void> writeFile(ProductCatalogSnapshot snapshot) {
+        var file = this.settings.file();
+        if (file == null) {
+            return Mono.empty();
+        }
+        return Mono.<Void>fromCallable(() -> {
+                    snapshot.writeTo(file);
+                    return null;
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(e -> {
+                    log.warn("Failed to write product catalog to {}", file, e);
+                    return Mono.empty();
+                });
+    }
+}
@@ -0,0 +1,188 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/*
+    Immutable best product per product code, stored column-wise: codes sorted for binary search,
+    productIds, productNames and scores at the same index. Equal strings are shared (names repeat a lot
+    across codes) and scores are a double[], so an entry costs its strings plus 16 bytes instead of a Product object.
+
+    File format (big endian): magic, version, count, then per entry code, productId, productName, score.
+    Strings are int length (-1 for null) followed by UTF-8 bytes. The file is read through a memory mapping.
+ */
+final class ProductCatalogSnapshot {
+
+    static final ProductCatalogSnapshot EMPTY = new ProductCatalogSnapshot(Collections.emptyMap());
+
+    private static final int MAGIC = 0x50434154;
+
+    private static final int VERSION = 1;
+
+    private final String[] codes;
+
+    private final String[] productIds;
+
+    private final String[] productNames;
+
+    private final double[] scores;
+
+    private final long heapBytes;
+
+    private ProductCatalogSnapshot(Map<String, Product> bestByCode) {
+        var sorted = new TreeMap<>(bestByCode);
+        int size = sorted.size();
+        this.codes = new String[size];
+        this.productIds = new String[size];
+        this.productNames = new String[size];
+        this.scores = new double[size];
+
+        Map<String, String> interned = new HashMap<>();
+        int i = 0;
+        for (var entry : sorted.entrySet()) {
+            var product = entry.getValue();
+            this.codes[i] = intern(interned, entry.getKey());
+            this.productIds[i] = intern(interned, product.productId());
+            this.productNames[i] = intern(interned, product.productName());
+            this.scores[i] = product.score();
+            i++;
+        }
+        this.heapBytes = estimateHeapBytes(interned.keySet(), size);
+    }
+
+    static ProductCatalogSnapshot of(Map<String, Product> bestByCode) {
+        return bestByCode.isEmpty() ? EMPTY : new ProductCatalogSnapshot(bestByCode);
+    }
+
+    // null when the code is not in the snapshot
+    Product get(String productCode) {
+        int i = Arrays.binarySearch(this.codes, productCode);
+        if (i < 0) {
+            return null;
+        }
+        return new Product(this.productIds[i], this.codes[i], this.productNames[i], this.scores[i]);
+    }
+
+    int size() {
+        return this.codes.length;
+    }
+
+    String code(int i) {
+        return this.codes[i];
+    }
+
+    // strings and arrays of the snapshot, assuming compressed oops and compact (Latin-1) strings
+    long heapBytes() {
+        return this.heapBytes;
+    }
+
+    // new snapshot with updated entries replaced or added and removed codes left out
+    ProductCatalogSnapshot with(Map<String, Product> updated, Set<String> removed) {
+        Map<String, Product> bestByCode = new HashMap<>(size() + updated.size());
+        for (int i = 0; i < size(); i++) {
+            if (!removed.contains(this.codes[i])) {
+                bestByCode.put(this.codes[i], get(this.codes[i]));
+            }
+        }
+        bestByCode.putAll(updated);
+        return of(bestByCode);
+    }
+
+    // written to a temporary file first, so a crash never leaves a half-written snapshot behind
+    void writeTo(Path file) throws IOException {
+        var buffer = ByteBuffer.allocate(encodedSize());
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(size());
+        for (int i = 0; i < size(); i++) {
+            putString(buffer, this.codes[i]);
+            putString(buffer, this.productIds[i]);
+            putString(buffer, this.productNames[i]);
+            buffer.putDouble(this.scores[i]);
+        }
+        buffer.flip();
+
+        var tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (var channel = FileChannel.open(tmp,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(false);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static ProductCatalogSnapshot readFrom(Path file) throws IOException {
+        try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.remaining() < 12 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a product catalog snapshot: " + file);
+            }
+            int size = buffer.getInt();
+            Map<String, Product> bestByCode = new HashMap<>(size * 2);
+            for (int i = 0; i < size; i++) {
+                var code = getString(buffer);
+                bestByCode.put(code, new Product(getString(buffer), code, getString(buffer), buffer.getDouble()));
+            }
+            return of(bestByCode);
+        }
+    }
+
+    private int encodedSize() {
+        int bytes = 12;
+        for (int i = 0; i < size(); i++) {
+            bytes += encodedSize(this.codes[i]) + encodedSize(this.productIds[i]) + encodedSize(this.productNames[i]) + 8;
+        }
+        return bytes;
+    }
+
+    private static int encodedSize(String value) {
+        return 4 + (value == null ? 0 : value.getBytes(StandardCharsets.UTF_8).length);
+    }
+
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        var bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length).put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        var bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String intern(Map<String, String> interned, String value) {
+        return value == null ? null : interned.computeIfAbsent(value, v -> v);
+    }
+
+    // String: 24 bytes object + 16 bytes array header + 1 byte per char, arrays: 16 bytes header + elements
+    private static long estimateHeapBytes(Set<String> strings, int size) {
+        long bytes = 0;
+        for (var string : strings) {
+            bytes += 40 + string.length();
+        }
+        return bytes + 3 * (16 + 4L * size) + (16 + 8L * size);
+    }
+}
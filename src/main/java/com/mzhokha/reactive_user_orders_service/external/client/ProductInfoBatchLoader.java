@@ -0,0 +1,172 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/*
+    DataLoader-style micro-batching of product lookups.
+
+    Lookups coming from in-flight orders are collected for batchWindow or until maxBatchSize codes are pending,
+    then one multi-code request is sent to the batch endpoint and every lookup receives its own slice of the result.
+
+    When batch endpoint fails lookups of that batch fall back to per-code requests.
+    If batch endpoint is not there at all (404, 405, 501) it isn't called again for BATCH_ENDPOINT_RETRY_INTERVAL.
+
+    Every lookup of a dispatched batch is completed, codes missing in the result (or an empty result) get no products.
+    Should the dispatcher ever fail, lookups it holds fail with its error and a new dispatcher takes over.
+ */
+class ProductInfoBatchLoader implements Disposable {
+
+    private static Logger log = LoggerFactory.getLogger(ProductInfoBatchLoader.class);
+
+    static final Duration BATCH_ENDPOINT_RETRY_INTERVAL = Duration.ofSeconds(30);
+
+    record PendingLookup(String productCode, Sinks.One<List<Product>> result) {
+    }
+
+    private final int maxBatchSize;
+
+    private final Duration batchWindow;
+
+    private final Function<Collection<String>, Mono<List<Product>>> batchFetch;
+
+    private final Function<String, Mono<List<Product>>> singleFetch;
+
+    // guarded by itself, unicast sink doesn't allow concurrent emission and lookups come from different threads
+    private final Object emitLock = new Object();
+
+    private Sinks.Many<PendingLookup> pendingLookups;
+
+    // lookups accepted by the current dispatcher and not completed yet
+    private Set<PendingLookup> openLookups;
+
+    private volatile Disposable dispatcher;
+
+    private volatile boolean disposed;
+
+    private volatile long batchEndpointUnavailableUntil;
+
+    ProductInfoBatchLoader(int maxBatchSize,
+                           Duration batchWindow,
+                           Function<Collection<String>, Mono<List<Product>>> batchFetch,
+                           Function<String, Mono<List<Product>>> singleFetch) {
+        this.maxBatchSize = maxBatchSize;
+        this.batchWindow = batchWindow;
+        this.batchFetch = batchFetch;
+        this.singleFetch = singleFetch;
+        startDispatcher();
+    }
+
+    // Fair backpressure: a batch is emitted only when flatMap has demand for it, lookups keep queueing meanwhile,
+    // instead of the timer failing the whole dispatcher when all batches in flight are waiting behind the limits.
+    private void startDispatcher() {
+        Sinks.Many<PendingLookup> lookups = Sinks.many().unicast().onBackpressureBuffer();
+        Set<PendingLookup> open = ConcurrentHashMap.newKeySet();
+        synchronized (this.emitLock) {
+            this.pendingLookups = lookups;
+            this.openLookups = open;
+        }
+        this.dispatcher = lookups.asFlux()
+                .bufferTimeout(this.maxBatchSize, this.batchWindow, true)
+                .flatMap(this::dispatch)
+                .subscribe(null, e -> {
+                    log.error("Product lookup dispatcher failed, {} pending lookups failed, restarting it", open.size(), e);
+                    open.forEach(lookup -> lookup.result().tryEmitError(e));
+                    if (!this.disposed) {
+                        startDispatcher();
+                    }
+                });
+    }
+
+    Mono<List<Product>> load(String productCode) {
+        return Mono.defer(() -> {
+            var lookup = new PendingLookup(productCode, Sinks.one());
+            Set<PendingLookup> open;
+            synchronized (this.emitLock) {
+                open = this.openLookups;
+                open.add(lookup);
+                this.pendingLookups.emitNext(lookup, Sinks.EmitFailureHandler.FAIL_FAST);
+            }
+            return lookup.result().asMono()
+                    .doFinally(signal -> open.remove(lookup));
+        });
+    }
+
+    private Mono<Void> dispatch(List<PendingLookup> batch) {
+        Map<String, List<PendingLookup>> lookupsByCode = batch.stream()
+                .collect(Collectors.groupingBy(PendingLookup::productCode, LinkedHashMap::new, Collectors.toList()));
+
+        Mono<Void> dispatched = System.nanoTime() - this.batchEndpointUnavailableUntil < 0
+                ? fallbackToSingleFetch(lookupsByCode)
+                : fetchBatch(lookupsByCode);
+
+        // whatever way the batch ended, including a fetch that completed without a value, no lookup is left waiting
+        return dispatched.doFinally(signal -> batch.forEach(lookup -> lookup.result().tryEmitValue(List.of())));
+    }
+
+    private Mono<Void> fetchBatch(Map<String, List<PendingLookup>> lookupsByCode) {
+        return Mono.defer(() -> this.batchFetch.apply(lookupsByCode.keySet()))
+                .defaultIfEmpty(List.of())
+                .map(products -> products.stream().collect(Collectors.groupingBy(Product::productCode)))
+                .doOnNext(productsByCode -> lookupsByCode.forEach((productCode, lookups) -> {
+                    var products = productsByCode.getOrDefault(productCode, List.of());
+                    lookups.forEach(lookup -> lookup.result().tryEmitValue(products));
+                }))
+                .then()
+                .onErrorResume(e -> {
+                    if (isBatchEndpointMissing(e)) {
+                        this.batchEndpointUnavailableUntil = System.nanoTime() + BATCH_ENDPOINT_RETRY_INTERVAL.toNanos();
+                    }
+                    log.warn("Batch lookup of {} product codes failed, falling back to per-code requests", lookupsByCode.size(), e);
+                    return fallbackToSingleFetch(lookupsByCode);
+                });
+    }
+
+    private Mono<Void> fallbackToSingleFetch(Map<String, List<PendingLookup>> lookupsByCode) {
+        return Flux.fromIterable(lookupsByCode.entrySet())
+                .flatMap(entry -> this.singleFetch.apply(entry.getKey())
+                        .defaultIfEmpty(List.of())
+                        .doOnNext(products -> entry.getValue().forEach(lookup -> lookup.result().tryEmitValue(products)))
+                        .doOnError(e -> entry.getValue().forEach(lookup -> lookup.result().tryEmitError(e)))
+                        .onErrorResume(e -> Mono.empty()))
+                .then();
+    }
+
+    private static boolean isBatchEndpointMissing(Throwable e) {
+        if (!(e instanceof WebClientResponseException responseException)) {
+            return false;
+        }
+        int status = responseException.getStatusCode().value();
+        return status == HttpStatus.NOT_FOUND.value()
+                || status == HttpStatus.METHOD_NOT_ALLOWED.value()
+                || status == HttpStatus.NOT_IMPLEMENTED.value();
+    }
+
+    @Override
+    public void dispose() {
+        this.disposed = true;
+        this.dispatcher.dispose();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return this.dispatcher.isDisposed();
+    }
+}
@@ -1,43 +1,518 @@
 package com.mzhokha.reactive_user_orders_service.external.client;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.mzhokha.reactive_user_orders_service.cache.ReactiveCache;
 import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import com.mzhokha.reactive_user_orders_service.external.resilience.AdaptiveConcurrencyLimiter;
+import com.mzhokha.reactive_user_orders_service.external.resilience.CircuitBreakerBulkhead;
+import com.mzhokha.reactive_user_orders_service.external.resilience.RequestHedger;
+import com.mzhokha.reactive_user_orders_service.metrics.StageTimers;
+import com.mzhokha.reactive_user_orders_service.util.DegradationUtil;
+import com.mzhokha.reactive_user_orders_service.util.ProductRanking;
+import com.mzhokha.reactive_user_orders_service.util.TopProducts;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.resources.ConnectionProvider;
 
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.List;
+import java.util.function.Supplier;
 
 @Component
-public class ProductInfoServiceClient implements InitializingBean {
+public class ProductInfoServiceClient implements InitializingBean, DisposableBean {
 
     @Value("${product.info.service.base.url}")
     String productInfoServiceBaseUrl;
 
+    @Value("${product.info.service.cache.enabled}")
+    boolean cacheEnabled = true;
+
+    @Value("${product.info.service.cache.max.size}")
+    long cacheMaxSize = 10_000;
+
+    @Value("${product.info.service.cache.ttl}")
+    Duration cacheTtl = Duration.ofMinutes(1);
+
+    @Value("${product.info.service.streaming.enabled}")
+    boolean streamingEnabled = false;
+
+    @Value("${product.info.service.batch.enabled}")
+    boolean batchEnabled = false;
+
+    @Value("${product.info.service.batch.max.size}")
+    int batchMaxSize = 50;
+
+    @Value("${product.info.service.batch.window}")
+    Duration batchWindow = Duration.ofMillis(10);
+
+    @Value("${product.info.service.catalog.enabled}")
+    boolean catalogEnabled = false;
+
+    // empty - catalog is not persisted and starts empty after restart
+    @Value("${product.info.service.catalog.file}")
+    String catalogFile = "";
+
+    // product codes loaded at start when missing in the file
+    @Value("${product.info.service.catalog.codes}")
+    List<String> catalogCodes = List.of();
+
+    @Value("${product.info.service.catalog.max.codes}")
+    int catalogMaxCodes = 100_000;
+
+    @Value("${product.info.service.catalog.refresh.interval}")
+    Duration catalogRefreshInterval = Duration.ofSeconds(30);
+
+    @Value("${product.info.service.catalog.refresh.codes}")
+    int catalogRefreshCodes = 1000;
+
+    @Value("${product.info.service.pool.max.connections}")
+    int poolMaxConnections = 200;
+
+    @Value("${product.info.service.pool.pending.acquire.max.count}")
+    int poolPendingAcquireMaxCount = 1000;
+
+    @Value("${product.info.service.pool.pending.acquire.timeout}")
+    Duration poolPendingAcquireTimeout = Duration.ofSeconds(2);
+
+    @Value("${product.info.service.pool.max.idle.time}")
+    Duration poolMaxIdleTime = Duration.ofSeconds(30);
+
+    @Value("${product.info.service.pool.max.life.time}")
+    Duration poolMaxLifeTime = Duration.ofMinutes(5);
+
+    @Value("${product.info.service.pool.eviction.interval}")
+    Duration poolEvictionInterval = Duration.ofSeconds(30);
+
+    @Value("${product.info.service.pool.keep.alive}")
+    boolean poolKeepAlive = true;
+
+    @Value("${product.info.service.pool.h2c}")
+    boolean poolH2c = false;
+
+    // wait for each read of a response, a call timing out is a failure for the circuit breaker
+    @Value("${product.info.service.response.timeout}")
+    Duration responseTimeout = Duration.ofSeconds(3);
+
+    @Value("${product.info.service.concurrency.limit.enabled}")
+    boolean concurrencyLimitEnabled = true;
+
+    @Value("${product.info.service.concurrency.limit.initial}")
+    int concurrencyLimitInitial = 20;
+
+    @Value("${product.info.service.concurrency.limit.min}")
+    int concurrencyLimitMin = 5;
+
+    @Value("${product.info.service.concurrency.limit.max}")
+    int concurrencyLimitMax = 200;
+
+    @Value("${product.info.service.concurrency.limit.latency.threshold}")
+    Duration concurrencyLimitLatencyThreshold = Duration.ofSeconds(1);
+
+    @Value("${product.info.service.concurrency.limit.backoff.ratio}")
+    double concurrencyLimitBackoffRatio = 0.9;
+
+    @Value("${product.info.service.concurrency.limit.max.queue.size}")
+    int concurrencyLimitMaxQueueSize = 1000;
+
+    @Value("${product.info.service.circuit.breaker.enabled}")
+    boolean circuitBreakerEnabled = true;
+
+    @Value("${product.info.service.circuit.breaker.sliding.window.size}")
+    int circuitBreakerSlidingWindowSize = 50;
+
+    @Value("${product.info.service.circuit.breaker.failure.rate.threshold}")
+    float circuitBreakerFailureRateThreshold = 50;
+
+    @Value("${product.info.service.circuit.breaker.slow.call.rate.threshold}")
+    float circuitBreakerSlowCallRateThreshold = 80;
+
+    @Value("${product.info.service.circuit.breaker.slow.call.duration.threshold}")
+    Duration circuitBreakerSlowCallDurationThreshold = Duration.ofSeconds(2);
+
+    @Value("${product.info.service.circuit.breaker.wait.duration.in.open.state}")
+    Duration circuitBreakerWaitDurationInOpenState = Duration.ofSeconds(10);
+
+    @Value("${product.info.service.circuit.breaker.permitted.calls.in.half.open.state}")
+    int circuitBreakerPermittedCallsInHalfOpenState = 5;
+
+    @Value("${product.info.service.bulkhead.max.concurrent.calls}")
+    int bulkheadMaxConcurrentCalls = 500;
+
+    @Value("${product.info.service.hedging.enabled}")
+    boolean hedgingEnabled = false;
+
+    @Value("${product.info.service.hedging.min.delay}")
+    Duration hedgingMinDelay = Duration.ofMillis(100);
+
+    @Value("${product.info.service.hedging.percentile}")
+    double hedgingPercentile = 0.95;
+
+    @Value("${product.info.service.hedging.budget.ratio}")
+    double hedgingBudgetRatio = 0.1;
+
+    @Autowired(required = false)
+    MeterRegistry meterRegistry = Metrics.globalRegistry;
+
+    private StageTimers stageTimers;
+
+    private ConnectionProvider connectionProvider;
+
     private WebClient webClient;
 
+    private ReactiveCache<String, List<Product>> productsCache;
+
+    private ReactiveCache<TopProductsQuery, List<Product>> topProductsCache;
+
+    record TopProductsQuery(String productCode, int k) {
+    }
+
+    private ProductInfoBatchLoader batchLoader;
+
+    private ProductCatalog productCatalog;
+
+    private AdaptiveConcurrencyLimiter concurrencyLimiter;
+
+    private RequestHedger requestHedger;
+
+    private CircuitBreakerBulkhead circuitBreakerBulkhead;
+
     @Override
     public void afterPropertiesSet() throws Exception {
+        this.stageTimers = new StageTimers(this.meterRegistry);
+
+        var poolSettings = new UpstreamHttpClients.PoolSettings(
+                this.poolMaxConnections,
+                this.poolPendingAcquireMaxCount,
+                this.poolPendingAcquireTimeout,
+                this.poolMaxIdleTime,
+                this.poolMaxLifeTime,
+                this.poolEvictionInterval,
+                this.poolKeepAlive,
+                this.poolH2c,
+                this.responseTimeout);
+        this.connectionProvider = UpstreamHttpClients.connectionProvider("product-info", poolSettings);
+
         this.webClient = WebClient.builder()
+                .clientConnector(UpstreamHttpClients.clientConnector(this.connectionProvider, poolSettings))
                 .baseUrl(this.productInfoServiceBaseUrl + "/productInfoService")
                 .build();
+
+        if (this.concurrencyLimitEnabled) {
+            this.concurrencyLimiter = new AdaptiveConcurrencyLimiter("product-info",
+                    new AdaptiveConcurrencyLimiter.Settings(
+                            this.concurrencyLimitInitial,
+                            this.concurrencyLimitMin,
+                            this.concurrencyLimitMax,
+                            this.concurrencyLimitLatencyThreshold,
+                            this.concurrencyLimitBackoffRatio,
+                            this.concurrencyLimitMaxQueueSize),
+                    this.meterRegistry);
+        }
+
+        if (this.circuitBreakerEnabled) {
+            this.circuitBreakerBulkhead = new CircuitBreakerBulkhead("product-info",
+                    new CircuitBreakerBulkhead.Settings(
+                            this.circuitBreakerSlidingWindowSize,
+                            this.circuitBreakerFailureRateThreshold,
+                            this.circuitBreakerSlowCallRateThreshold,
+                            this.circuitBreakerSlowCallDurationThreshold,
+                            this.circuitBreakerWaitDurationInOpenState,
+                            this.circuitBreakerPermittedCallsInHalfOpenState,
+                            this.bulkheadMaxConcurrentCalls),
+                    this.meterRegistry);
+        }
+
+        if (this.hedgingEnabled) {
+            this.requestHedger = new RequestHedger("product-info",
+                    new RequestHedger.Settings(this.hedgingMinDelay, this.hedgingPercentile, this.hedgingBudgetRatio),
+                    this.meterRegistry);
+        }
+
+        if (this.batchEnabled) {
+            this.batchLoader = new ProductInfoBatchLoader(this.batchMaxSize, this.batchWindow,
+                    this::fetchProductsByCodes, this::fetchProductsByCode);
+        }
+
+        if (this.cacheEnabled && this.streamingEnabled) {
+            this.topProductsCache = new ReactiveCache<>("product-info-top", this.cacheMaxSize, this.cacheTtl, this.meterRegistry);
+        } else if (this.cacheEnabled) {
+            this.productsCache = new ReactiveCache<>("product-info", this.cacheMaxSize, this.cacheTtl, this.meterRegistry);
+        }
+
+        if (this.catalogEnabled) {
+            this.productCatalog = new ProductCatalog("product-info",
+                    new ProductCatalog.Settings(
+                            this.catalogFile.isBlank() ? null : Path.of(this.catalogFile),
+                            this.catalogCodes,
+                            this.catalogMaxCodes,
+                            this.catalogRefreshInterval,
+                            this.catalogRefreshCodes,
+                            this.batchMaxSize),
+                    this::fetchProductsByCodes,
+                    this.meterRegistry);
+            this.productCatalog.start();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (this.productCatalog != null) {
+            this.productCatalog.dispose();
+        }
+        if (this.batchLoader != null) {
+            this.batchLoader.dispose();
+        }
+        this.connectionProvider.dispose();
+    }
+
+    /*
+        Product with the highest score for the product code.
+
+        In streaming mode the product array is decoded element by element and reduced as bytes arrive,
+        so only the current best product is kept per order no matter how long the list is.
+        Streaming mode sends one request per product code, batching doesn't apply to it.
+
+        With the catalog enabled codes found in it are answered from memory, the others are looked up
+        as above and added to it.
+     */
+    public Mono<Product> getBestProductByCode(String productCode) {
+        return getBestProductByCode(productCode, Schedulers.immediate());
+    }
+
+    // reductionScheduler - where products are reduced, immediate() reduces where the response arrives
+    public Mono<Product> getBestProductByCode(String productCode, Scheduler reductionScheduler) {
+        if (this.productCatalog == null) {
+            return loadBestProductByCode(productCode, reductionScheduler);
+        }
+        var product = this.productCatalog.get(productCode);
+        if (product != null) {
+            return Mono.just(product);
+        }
+        return loadBestProductByCode(productCode, reductionScheduler)
+                .doOnNext(best -> this.productCatalog.add(productCode, best));
+    }
+
+    private Mono<Product> loadBestProductByCode(String productCode, Scheduler reductionScheduler) {
+        if (!this.streamingEnabled) {
+            return reduceOn(reductionScheduler, getProductsByCode(productCode))
+                    .map(products -> this.stageTimers.time("product.reduce", () -> ProductRanking.best(products)));
+        }
+        return getTopProductsByCode(productCode, 1, reductionScheduler)
+                .map(products -> products.isEmpty() ? ProductRanking.NO_PRODUCT : products.get(0));
+    }
+
+    // k products with the highest score for the product code, highest score first
+    public Mono<List<Product>> getTopProductsByCode(String productCode, int k) {
+        return getTopProductsByCode(productCode, k, Schedulers.immediate());
+    }
+
+    /*
+        reductionScheduler - where products are reduced. In streaming mode products of a cached lookup
+        are reduced once, on the scheduler of the caller that started the lookup.
+     */
+    public Mono<List<Product>> getTopProductsByCode(String productCode, int k, Scheduler reductionScheduler) {
+        if (!this.streamingEnabled) {
+            return reduceOn(reductionScheduler, getProductsByCode(productCode))
+                    .map(products -> this.stageTimers.time("product.reduce", () -> TopProducts.of(products, k)));
+        }
+        var query = new TopProductsQuery(productCode, k);
+        if (this.topProductsCache == null) {
+            return withRejectionFallback(fetchTopProductsByCode(query, reductionScheduler));
+        }
+        return withRejectionFallback(this.topProductsCache.get(query, q -> fetchTopProductsByCode(q, reductionScheduler)));
+    }
+
+    private Mono<List<Product>> fetchTopProductsByCode(TopProductsQuery query, Scheduler reductionScheduler) {
+        return hedged(() -> reduceOn(reductionScheduler, streamProductsByCode(query.productCode()))
+                .reduceWith(() -> new TopProducts(query.k()), TopProducts::offer)
+                .map(TopProducts::toList));
+    }
+
+    private static <T> Mono<T> reduceOn(Scheduler reductionScheduler, Mono<T> mono) {
+        return reductionScheduler == Schedulers.immediate() ? mono : mono.publishOn(reductionScheduler);
+    }
+
+    private static <T> Flux<T> reduceOn(Scheduler reductionScheduler, Flux<T> flux) {
+        return reductionScheduler == Schedulers.immediate() ? flux : flux.publishOn(reductionScheduler);
+    }
+
+    // Hot product codes are shared by many orders, so concurrent lookups of the same code
+    // are served by one in-flight request and its result is kept for cacheTtl.
+    public Mono<List<Product>> getProductsByCode(String productCode) {
+        if (this.productsCache == null) {
+            return withRejectionFallback(loadProductsByCode(productCode));
+        }
+        return withRejectionFallback(this.productsCache.get(productCode, this::loadProductsByCode));
+    }
+
+    // While product-info-service is unhealthy (open circuit) or overloaded (full bulkhead) order gets no products
+    // right away instead of waiting for timeout. Fallback is applied outside the cache, so it isn't cached,
+    // and marks the result degraded (see DegradationUtil).
+    private Mono<List<Product>> withRejectionFallback(Mono<List<Product>> products) {
+        if (this.circuitBreakerBulkhead == null) {
+            return products;
+        }
+        return products.onErrorResume(CircuitBreakerBulkhead::isRejected, e -> DegradationUtil.degraded(List.of()));
+    }
+
+    // Lookups of orders being processed at the same time are sent as one multi-code request when batching is enabled,
+    // batched requests aren't hedged.
+    private Mono<List<Product>> loadProductsByCode(String productCode) {
+        if (this.batchLoader == null) {
+            return hedged(() -> fetchProductsByCode(productCode));
+        }
+        return this.batchLoader.load(productCode);
     }
 
     // http://localhost:8082/productInfoService/product/names?productCode=Milk
     // [{"productId":"111","productCode":"Milk","productName":"IceCream","score":6787.14},...]
-    public Mono<List<Product>> getProductsByCode(String productCode) {
-        return this.webClient.get().uri(uriBuilder ->
+    Mono<List<Product>> fetchProductsByCode(String productCode) {
+        return limited(this.webClient.get().uri(uriBuilder ->
                         uriBuilder.path("/product/names")
                                 .queryParam("productCode", productCode)
                                 .build())
                 .retrieve()
-                .bodyToMono(new ParameterizedTypeReference<List<Product>>() {});
+                .bodyToMono(new ParameterizedTypeReference<List<Product>>() {}));
+    }
+
+    // Same endpoint as fetchProductsByCode, JSON array is emitted element by element as it's being decoded
+    Flux<Product> streamProductsByCode(String productCode) {
+        return limited(this.webClient.get().uri(uriBuilder ->
+                        uriBuilder.path("/product/names")
+                                .queryParam("productCode", productCode)
+                                .build())
+                .retrieve()
+                .bodyToFlux(Product.class));
+    }
+
+    // http://localhost:8082/productInfoService/product/names/batch?productCodes=Milk,Bread
+    // [{"productId":"111","productCode":"Milk","productName":"IceCream","score":6787.14},{..."productCode":"Bread"...},...]
+    Mono<List<Product>> fetchProductsByCodes(Collection<String> productCodes) {
+        return limited(this.webClient.get().uri(uriBuilder ->
+                        uriBuilder.path("/product/names/batch")
+                                .queryParam("productCodes", String.join(",", productCodes))
+                                .build())
+                .retrieve()
+                .bodyToMono(new ParameterizedTypeReference<List<Product>>() {}));
+    }
+
+    private <T> Mono<T> hedged(Supplier<Mono<T>> call) {
+        return this.requestHedger != null ? this.requestHedger.hedge(call) : call.get();
+    }
+
+    // circuit breaker -> bulkhead -> adaptive concurrency limit -> request
+    private <T> Mono<T> limited(Mono<T> call) {
+        if (this.concurrencyLimiter != null) {
+            call = this.concurrencyLimiter.limit(call);
+        }
+        return this.circuitBreakerBulkhead != null ? this.circuitBreakerBulkhead.guard(call) : call;
+    }
+
+    private <T> Flux<T> limited(Flux<T> call) {
+        if (this.concurrencyLimiter != null) {
+            call = this.concurrencyLimiter.limit(call);
+        }
+        return this.circuitBreakerBulkhead != null ? this.circuitBreakerBulkhead.guard(call) : call;
+    }
+
+    // null when cache is disabled
+    public CacheStats getProductsCacheStats() {
+        if (this.topProductsCache != null) {
+            return this.topProductsCache.stats();
+        }
+        return this.productsCache != null ? this.productsCache.stats() : null;
     }
 
     public void setProductInfoServiceBaseUrl(String productInfoServiceBaseUrl) {
         this.productInfoServiceBaseUrl = productInfoServiceBaseUrl;
     }
+
+    public void setCatalogEnabled(boolean catalogEnabled) {
+        this.catalogEnabled = catalogEnabled;
+    }
+
+    public void setCatalogFile(String catalogFile) {
+        this.catalogFile = catalogFile;
+    }
+
+    public void setCatalogCodes(List<String> catalogCodes) {
+        this.catalogCodes = catalogCodes;
+    }
+
+    public void setCatalogRefreshInterval(Duration catalogRefreshInterval) {
+        this.catalogRefreshInterval = catalogRefreshInterval;
+    }
+
+    public void setCacheEnabled(boolean cacheEnabled) {
+        this.cacheEnabled = cacheEnabled;
+    }
+
+    public void setCacheMaxSize(long cacheMaxSize) {
+        this.cacheMaxSize = cacheMaxSize;
+    }
+
+    public void setCacheTtl(Duration cacheTtl) {
+        this.cacheTtl = cacheTtl;
+    }
+
+    public void setStreamingEnabled(boolean streamingEnabled) {
+        this.streamingEnabled = streamingEnabled;
+    }
+
+    public void setBatchEnabled(boolean batchEnabled) {
+        this.batchEnabled = batchEnabled;
+    }
+
+    public void setBatchMaxSize(int batchMaxSize) {
+        this.batchMaxSize = batchMaxSize;
+    }
+
+    public void setBatchWindow(Duration batchWindow) {
+        this.batchWindow = batchWindow;
+    }
+
+    public void setPoolMaxConnections(int poolMaxConnections) {
+        this.poolMaxConnections = poolMaxConnections;
+    }
+
+    public void setPoolPendingAcquireMaxCount(int poolPendingAcquireMaxCount) {
+        this.poolPendingAcquireMaxCount = poolPendingAcquireMaxCount;
+    }
+
+    public void setConcurrencyLimitEnabled(boolean concurrencyLimitEnabled) {
+        this.concurrencyLimitEnabled = concurrencyLimitEnabled;
+    }
+
+    public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+        this.circuitBreakerEnabled = circuitBreakerEnabled;
+    }
+
+    public void setCircuitBreakerSlidingWindowSize(int circuitBreakerSlidingWindowSize) {
+        this.circuitBreakerSlidingWindowSize = circuitBreakerSlidingWindowSize;
+    }
+
+    public void setResponseTimeout(Duration responseTimeout) {
+        this.responseTimeout = responseTimeout;
+    }
+
+    public void setHedgingEnabled(boolean hedgingEnabled) {
+        this.hedgingEnabled = hedgingEnabled;
+    }
+
+    public void setMeterRegistry(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
 }
@@ -0,0 +1,103 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+    Response body of the blocking clients: HttpRequest.timeout only bounds the wait for response headers,
+    a body that stalls afterwards would block the reading thread forever.
+    Every read waiting longer than the timeout is interrupted and fails with HttpTimeoutException,
+    same idle-read semantics as responseTimeout of the reactive clients.
+ */
+class ReadTimeoutInputStream extends FilterInputStream {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("body-read-timeout").daemon().factory());
+
+    private interface Read {
+        int read() throws IOException;
+    }
+
+    private final Duration timeout;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private Thread reader; // guarded by lock, null when no read is in progress
+
+    private boolean timedOut; // guarded by lock
+
+    ReadTimeoutInputStream(InputStream in, Duration timeout) {
+        super(in);
+        this.timeout = timeout;
+    }
+
+    @Override
+    public int read() throws IOException {
+        return timed(super::read);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        return timed(() -> super.read(b, off, len));
+    }
+
+    private int timed(Read read) throws IOException {
+        var timer = start();
+        int result;
+        try {
+            result = read.read();
+        } catch (IOException | RuntimeException e) {
+            finish(timer);
+            throw e;
+        }
+        finish(timer);
+        return result;
+    }
+
+    private ScheduledFuture<?> start() {
+        this.lock.lock();
+        try {
+            this.reader = Thread.currentThread();
+        } finally {
+            this.lock.unlock();
+        }
+        return TIMER.schedule(this::expire, this.timeout.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void expire() {
+        this.lock.lock();
+        try {
+            if (this.reader != null) {
+                this.timedOut = true;
+                this.reader.interrupt();
+            }
+        } finally {
+            this.lock.unlock();
+        }
+    }
+
+    private void finish(ScheduledFuture<?> timer) throws HttpTimeoutException {
+        timer.cancel(false);
+        boolean expired;
+        this.lock.lock();
+        try {
+            this.reader = null;
+            expired = this.timedOut;
+        } finally {
+            this.lock.unlock();
+        }
+        if (expired) {
+            // the interrupt came from the timer, not from the caller
+            Thread.interrupted();
+            throw new HttpTimeoutException("Response body read timed out after " + this.timeout);
+        }
+    }
+}
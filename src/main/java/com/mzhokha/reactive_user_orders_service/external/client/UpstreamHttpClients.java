@@ -0,0 +1,63 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import io.netty.channel.ChannelOption;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import reactor.netty.http.HttpProtocol;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+
+/*
+    Dedicated Reactor Netty connection pool per upstream service, so that one slow upstream can't take
+    connections of another one and each pool can be sized for its own traffic.
+
+    Pool metrics are published by Reactor Netty with name tag = pool name:
+    reactor.netty.connection.provider.total.connections / active.connections / idle.connections / pending.connections,
+    reactor.netty.connection.provider.pending.connections.time (acquire latency).
+    Client metrics (connect time, response time) are under reactor.netty.http.client.*
+
+    responseTimeout bounds the wait for each read of a response (headers and body) on the connection.
+    It fails the call inside the circuit breaker, so a hung upstream is recorded as failing and opens it,
+    unlike a timeout of the caller which only cancels the call.
+ */
+public class UpstreamHttpClients {
+
+    public record PoolSettings(int maxConnections,
+                               int pendingAcquireMaxCount,
+                               Duration pendingAcquireTimeout,
+                               Duration maxIdleTime,
+                               Duration maxLifeTime,
+                               Duration evictionInterval,
+                               boolean keepAlive,
+                               boolean h2c,
+                               Duration responseTimeout) {
+    }
+
+    public static ConnectionProvider connectionProvider(String name, PoolSettings settings) {
+        return ConnectionProvider.builder(name)
+                .maxConnections(settings.maxConnections())
+                .pendingAcquireMaxCount(settings.pendingAcquireMaxCount())
+                .pendingAcquireTimeout(settings.pendingAcquireTimeout())
+                .maxIdleTime(settings.maxIdleTime())
+                .maxLifeTime(settings.maxLifeTime())
+                .evictInBackground(settings.evictionInterval())
+                .metrics(true)
+                .build();
+    }
+
+    public static ReactorClientHttpConnector clientConnector(ConnectionProvider connectionProvider, PoolSettings settings) {
+        HttpClient httpClient = HttpClient.create(connectionProvider)
+                .keepAlive(settings.keepAlive())
+                .option(ChannelOption.SO_KEEPALIVE, settings.keepAlive())
+                .responseTimeout(settings.responseTimeout())
+                // query string is cut off to keep uri tag cardinality low
+                .metrics(true, uri -> uri.replaceFirst("\\?.*", ""));
+
+        if (settings.h2c()) {
+            // many concurrent requests multiplexed over one cleartext HTTP/2 connection, falls back to HTTP/1.1
+            httpClient = httpClient.protocol(HttpProtocol.H2C, HttpProtocol.HTTP11);
+        }
+        return new ReactorClientHttpConnector(httpClient);
+    }
+}
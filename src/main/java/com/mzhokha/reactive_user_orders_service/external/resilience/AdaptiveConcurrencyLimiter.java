@@ -0,0 +1,233 @@
+package com.mzhokha.reactive_user_orders_service.external.resilience;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Limits number of in-flight calls to one downstream service, limit is adjusted by AIMD:
+    - call completed faster than latencyThreshold while limit is in use: limit + 1
+    - call was slow or failed with overload (timeout, connection error, 5xx, 429): limit * backoffRatio
+    Limit stays within [minLimit, maxLimit].
+
+    Calls above the limit wait in FIFO queue of at most maxQueueSize, beyond that they fail with LimitExceededException.
+    Permit is held from subscription until completion, for Flux it is the whole stream.
+    Latency of a Flux call is sampled at its first element (or its end when there is none): the rest of the stream
+    goes at the pace of the consumer's demand, which says nothing about congestion of the downstream service.
+ */
+public class AdaptiveConcurrencyLimiter {
+
+    public record Settings(int initialLimit,
+                           int minLimit,
+                           int maxLimit,
+                           Duration latencyThreshold,
+                           double backoffRatio,
+                           int maxQueueSize) {
+    }
+
+    public static class LimitExceededException extends RuntimeException {
+        LimitExceededException(String name) {
+            super("Concurrency limit queue of " + name + " is full");
+        }
+    }
+
+    private final String name;
+
+    private final Settings settings;
+
+    private final long latencyThresholdNanos;
+
+    private final Deque<Waiter> waiters = new ArrayDeque<>(); // guarded by this
+
+    private double limit; // guarded by this
+
+    private int inFlight; // guarded by this
+
+    public AdaptiveConcurrencyLimiter(String name, Settings settings, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.settings = settings;
+        this.latencyThresholdNanos = settings.latencyThreshold().toNanos();
+        this.limit = Math.max(settings.minLimit(), Math.min(settings.initialLimit(), settings.maxLimit()));
+
+        Gauge.builder("upstream.concurrency.limit", this, AdaptiveConcurrencyLimiter::getLimit)
+                .tag("client", name)
+                .register(meterRegistry);
+        Gauge.builder("upstream.concurrency.in.flight", this, AdaptiveConcurrencyLimiter::getInFlight)
+                .tag("client", name)
+                .register(meterRegistry);
+        Gauge.builder("upstream.concurrency.queued", this, AdaptiveConcurrencyLimiter::getQueued)
+                .tag("client", name)
+                .register(meterRegistry);
+    }
+
+    public <T> Mono<T> limit(Mono<T> call) {
+        return Mono.usingWhen(acquire(),
+                permit -> call,
+                permit -> permit.release(null),
+                Permit::release,
+                permit -> permit.release(null, false));
+    }
+
+    public <T> Flux<T> limit(Flux<T> call) {
+        return Flux.usingWhen(acquire(),
+                permit -> call.doOnNext(item -> permit.responded()),
+                permit -> permit.release(null),
+                Permit::release,
+                permit -> permit.release(null, false));
+    }
+
+    public synchronized int getLimit() {
+        return (int) this.limit;
+    }
+
+    public synchronized int getInFlight() {
+        return this.inFlight;
+    }
+
+    public synchronized int getQueued() {
+        return this.waiters.size();
+    }
+
+    private Mono<Permit> acquire() {
+        return Mono.create(sink -> {
+            Waiter waiter = new Waiter(sink);
+            Permit permit = null;
+            boolean queued = false;
+            synchronized (this) {
+                if (this.inFlight < (int) this.limit) {
+                    this.inFlight++;
+                    permit = new Permit();
+                } else if (this.waiters.size() < this.settings.maxQueueSize()) {
+                    this.waiters.addLast(waiter);
+                    queued = true;
+                }
+            }
+
+            if (permit != null) {
+                sink.success(permit);
+                return;
+            }
+            if (!queued) {
+                sink.error(new LimitExceededException(this.name));
+                return;
+            }
+
+            sink.onCancel(() -> {
+                if (waiter.cancel()) {
+                    synchronized (this) {
+                        this.waiters.remove(waiter);
+                    }
+                } else {
+                    // granted, but success may have been dropped because of cancellation
+                    Permit grantedPermit;
+                    synchronized (this) {
+                        grantedPermit = waiter.permit;
+                    }
+                    grantedPermit.release(null, false);
+                }
+            });
+        });
+    }
+
+    private void onRelease(long latencyNanos, Throwable error, boolean sampled) {
+        synchronized (this) {
+            this.inFlight--;
+            if (sampled) {
+                if (isOverload(error) || latencyNanos > this.latencyThresholdNanos) {
+                    this.limit = Math.max(this.settings.minLimit(), this.limit * this.settings.backoffRatio());
+                } else if (error == null && this.inFlight * 2 >= this.limit) {
+                    this.limit = Math.min(this.settings.maxLimit(), this.limit + 1);
+                }
+            }
+        }
+        drain();
+    }
+
+    private void drain() {
+        while (true) {
+            Waiter waiter;
+            synchronized (this) {
+                if (this.waiters.isEmpty() || this.inFlight >= (int) this.limit) {
+                    return;
+                }
+                waiter = this.waiters.pollFirst();
+                if (!waiter.grant()) {
+                    continue;
+                }
+                this.inFlight++;
+                waiter.permit = new Permit();
+            }
+            waiter.sink.success(waiter.permit);
+        }
+    }
+
+    private static boolean isOverload(Throwable error) {
+        if (error == null) {
+            return false;
+        }
+        if (error instanceof WebClientResponseException responseException) {
+            int status = responseException.getStatusCode().value();
+            return status >= 500 || status == 429;
+        }
+        return error instanceof TimeoutException || error instanceof WebClientRequestException;
+    }
+
+    private static class Waiter {
+        private static final int PENDING = 0;
+        private static final int GRANTED = 1;
+        private static final int CANCELLED = 2;
+
+        private final MonoSink<Permit> sink;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private volatile Permit permit;
+
+        Waiter(MonoSink<Permit> sink) {
+            this.sink = sink;
+        }
+
+        boolean grant() {
+            return this.state.compareAndSet(PENDING, GRANTED);
+        }
+
+        boolean cancel() {
+            return this.state.compareAndSet(PENDING, CANCELLED);
+        }
+    }
+
+    private class Permit {
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+        // 0 until the first element of a Flux call
+        private volatile long latencyNanos;
+
+        void responded() {
+            if (this.latencyNanos == 0) {
+                this.latencyNanos = Math.max(1, System.nanoTime() - this.startNanos);
+            }
+        }
+
+        Mono<Void> release(Throwable error) {
+            return release(error, true);
+        }
+
+        // cancelled calls don't tell anything about downstream, so they aren't sampled
+        Mono<Void> release(Throwable error, boolean sampled) {
+            if (this.released.compareAndSet(false, true)) {
+                long latency = this.latencyNanos != 0 ? this.latencyNanos : System.nanoTime() - this.startNanos;
+                onRelease(latency, error, sampled);
+            }
+            return Mono.empty();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.mzhokha.reactive_user_orders_service.external.resilience;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.github.resilience4j.reactor.bulkhead.operator.BulkheadOperator;
+import io.github.resilience4j.reactor.circuitbreaker.operator.CircuitBreakerOperator;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+    Circuit breaker and bulkhead (max concurrent calls, no waiting) around calls to one upstream service.
+
+    Circuit breaker opens when failure rate or slow call rate in the sliding window of last calls
+    exceeds threshold. While open, calls fail immediately with CallNotPermittedException instead of
+    waiting for timeouts; after waitDurationInOpenState a few probe calls are let through (half-open)
+    and decide whether to close it again.
+
+    4xx responses (except 429) are not counted as failures, rejections by bulkhead or concurrency limiter are ignored.
+    Duration of a Flux call is taken at its first element (or its end when there is none), like AdaptiveConcurrencyLimiter
+    does: the rest of the stream goes at the pace of the consumer's demand, a slow client is not a slow upstream.
+
+    Metrics: resilience4j.circuitbreaker.* and resilience4j.bulkhead.* tagged by name,
+    upstream.circuit.breaker.transitions{client, from, to}.
+ */
+public class CircuitBreakerBulkhead {
+
+    private static Logger log = LoggerFactory.getLogger(CircuitBreakerBulkhead.class);
+
+    public record Settings(int slidingWindowSize,
+                           float failureRateThreshold,
+                           float slowCallRateThreshold,
+                           Duration slowCallDurationThreshold,
+                           Duration waitDurationInOpenState,
+                           int permittedCallsInHalfOpenState,
+                           int bulkheadMaxConcurrentCalls) {
+    }
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final Bulkhead bulkhead;
+
+    public CircuitBreakerBulkhead(String name, Settings settings, MeterRegistry meterRegistry) {
+        var circuitBreakerRegistry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .slidingWindowType(CircuitBreakerConfig.SlidingWindowType.COUNT_BASED)
+                .slidingWindowSize(settings.slidingWindowSize())
+                .minimumNumberOfCalls(settings.slidingWindowSize())
+                .failureRateThreshold(settings.failureRateThreshold())
+                .slowCallRateThreshold(settings.slowCallRateThreshold())
+                .slowCallDurationThreshold(settings.slowCallDurationThreshold())
+                .waitDurationInOpenState(settings.waitDurationInOpenState())
+                .permittedNumberOfCallsInHalfOpenState(settings.permittedCallsInHalfOpenState())
+                .automaticTransitionFromOpenToHalfOpenEnabled(true)
+                .recordException(CircuitBreakerBulkhead::isFailure)
+                .ignoreException(CircuitBreakerBulkhead::isLocalRejection)
+                .build());
+        this.circuitBreaker = circuitBreakerRegistry.circuitBreaker(name);
+
+        var bulkheadRegistry = BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxConcurrentCalls(settings.bulkheadMaxConcurrentCalls())
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+        this.bulkhead = bulkheadRegistry.bulkhead(name);
+
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakerRegistry).bindTo(meterRegistry);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheadRegistry).bindTo(meterRegistry);
+
+        this.circuitBreaker.getEventPublisher().onStateTransition(event -> {
+            var transition = event.getStateTransition();
+            log.warn("Circuit breaker {} changed state from {} to {}", name, transition.getFromState(), transition.getToState());
+            Counter.builder("upstream.circuit.breaker.transitions")
+                    .tag("client", name)
+                    .tag("from", transition.getFromState().name())
+                    .tag("to", transition.getToState().name())
+                    .register(meterRegistry)
+                    .increment();
+        });
+    }
+
+    public <T> Mono<T> guard(Mono<T> call) {
+        return call.transformDeferred(BulkheadOperator.of(this.bulkhead))
+                .transformDeferred(CircuitBreakerOperator.of(this.circuitBreaker));
+    }
+
+    public <T> Flux<T> guard(Flux<T> call) {
+        var bulkheadCall = call.transformDeferred(BulkheadOperator.of(this.bulkhead));
+        return Flux.defer(() -> {
+            this.circuitBreaker.acquirePermission();
+            var streamedCall = new StreamedCall();
+            return bulkheadCall
+                    .doOnNext(item -> streamedCall.responded())
+                    .doOnComplete(streamedCall::succeeded)
+                    .doOnError(streamedCall::failed)
+                    .doOnCancel(streamedCall::cancelled);
+        });
+    }
+
+    public CircuitBreaker.State getState() {
+        return this.circuitBreaker.getState();
+    }
+
+    // call was rejected locally (open circuit or full bulkhead) without reaching upstream service
+    public static boolean isRejected(Throwable e) {
+        return e instanceof CallNotPermittedException || e instanceof BulkheadFullException;
+    }
+
+    private static boolean isLocalRejection(Throwable e) {
+        return isRejected(e) || e instanceof AdaptiveConcurrencyLimiter.LimitExceededException;
+    }
+
+    private class StreamedCall {
+        private final long startNanos = System.nanoTime();
+        private final AtomicBoolean recorded = new AtomicBoolean();
+        // 0 until the first element
+        private volatile long latencyNanos;
+
+        void responded() {
+            if (this.latencyNanos == 0) {
+                this.latencyNanos = Math.max(1, System.nanoTime() - this.startNanos);
+            }
+        }
+
+        void succeeded() {
+            if (this.recorded.compareAndSet(false, true)) {
+                circuitBreaker.onSuccess(latencyNanos(), TimeUnit.NANOSECONDS);
+            }
+        }
+
+        void failed(Throwable e) {
+            if (this.recorded.compareAndSet(false, true)) {
+                circuitBreaker.onError(latencyNanos(), TimeUnit.NANOSECONDS, e);
+            }
+        }
+
+        // cancelled before the first element tells nothing about upstream, after it the upstream did respond
+        void cancelled() {
+            if (this.recorded.compareAndSet(false, true)) {
+                if (this.latencyNanos == 0) {
+                    circuitBreaker.releasePermission();
+                } else {
+                    circuitBreaker.onSuccess(this.latencyNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+
+        private long latencyNanos() {
+            return this.latencyNanos != 0 ? this.latencyNanos : System.nanoTime() - this.startNanos;
+        }
+    }
+
+    private static boolean isFailure(Throwable e) {
+        if (e instanceof WebClientResponseException responseException) {
+            int status = responseException.getStatusCode().value();
+            return status >= 500 || status == 429;
+        }
+        return true;
+    }
+}
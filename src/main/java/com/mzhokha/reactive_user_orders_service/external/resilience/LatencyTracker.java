@@ -0,0 +1,64 @@
+package com.mzhokha.reactive_user_orders_service.external.resilience;
+
+import java.util.Arrays;
+
+/*
+    Keeps last N latency samples and answers percentile queries over them.
+    Percentile is recomputed at most once per refreshIntervalNanos, in between the cached value is returned.
+ */
+class LatencyTracker {
+
+    private final long[] samples; // guarded by this
+
+    private final long refreshIntervalNanos;
+
+    private int next; // guarded by this
+
+    private int count; // guarded by this
+
+    private volatile long cachedPercentileNanos = -1;
+
+    private volatile double cachedPercentile = -1;
+
+    private volatile long cachedAtNanos;
+
+    LatencyTracker(int windowSize, long refreshIntervalNanos) {
+        this.samples = new long[windowSize];
+        this.refreshIntervalNanos = refreshIntervalNanos;
+    }
+
+    synchronized void record(long latencyNanos) {
+        this.samples[this.next] = latencyNanos;
+        this.next = (this.next + 1) % this.samples.length;
+        if (this.count < this.samples.length) {
+            this.count++;
+        }
+    }
+
+    synchronized int count() {
+        return this.count;
+    }
+
+    // -1 when there are no samples yet
+    long percentileNanos(double percentile) {
+        long now = System.nanoTime();
+        if (this.cachedPercentile == percentile && now - this.cachedAtNanos < this.refreshIntervalNanos) {
+            return this.cachedPercentileNanos;
+        }
+
+        long[] sorted;
+        synchronized (this) {
+            if (this.count == 0) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(this.samples, this.count);
+        }
+        Arrays.sort(sorted);
+        int index = Math.max(0, (int) Math.ceil(percentile * sorted.length) - 1);
+
+        this.cachedPercentileNanos = sorted[index];
+        this.cachedPercentile = percentile;
+        this.cachedAtNanos = now;
+        return sorted[index];
+    }
+}
@@ -0,0 +1,102 @@
+package com.mzhokha.reactive_user_orders_service.external.resilience;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.NoSuchElementException;
+import java.util.function.Supplier;
+
+/*
+    Request hedging: when a call hasn't answered within hedge delay, a second identical call is sent
+    and whichever answers first wins, the other one is cancelled.
+
+    Hedge delay is the observed latency percentile (e.g. p95) of recent calls, but not less than minDelay.
+    Until MIN_SAMPLES calls are observed, or when percentile is 0, minDelay is used as is.
+
+    Extra load is capped by token bucket budget: every call adds budgetRatio tokens (up to MAX_BUDGET_TOKENS),
+    every hedge takes one. With budgetRatio = 0.1 at most ~10% of calls are hedged.
+    If the first call fails before hedge delay, the error is returned right away without hedging.
+ */
+public class RequestHedger {
+
+    static final int MIN_SAMPLES = 100;
+
+    static final double MAX_BUDGET_TOKENS = 10;
+
+    public record Settings(Duration minDelay, double percentile, double budgetRatio) {
+    }
+
+    private final Settings settings;
+
+    private final LatencyTracker latencyTracker = new LatencyTracker(1024, Duration.ofSeconds(1).toNanos());
+
+    private final Counter hedgedCalls;
+
+    private final Counter budgetExhausted;
+
+    private double budgetTokens; // guarded by this
+
+    public RequestHedger(String name, Settings settings, MeterRegistry meterRegistry) {
+        this.settings = settings;
+        this.hedgedCalls = Counter.builder("upstream.hedged.calls")
+                .tag("client", name)
+                .register(meterRegistry);
+        this.budgetExhausted = Counter.builder("upstream.hedge.budget.exhausted")
+                .tag("client", name)
+                .register(meterRegistry);
+    }
+
+    public <T> Mono<T> hedge(Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            depositBudget();
+            long startNanos = System.nanoTime();
+
+            Sinks.One<Boolean> primaryFailed = Sinks.one();
+            Mono<T> primary = call.get()
+                    .doOnError(e -> primaryFailed.tryEmitValue(true));
+            Mono<T> hedged = Mono.delay(hedgeDelay())
+                    .takeUntilOther(primaryFailed.asMono())
+                    .flatMap(tick -> {
+                        if (!withdrawBudget()) {
+                            this.budgetExhausted.increment();
+                            return Mono.empty();
+                        }
+                        this.hedgedCalls.increment();
+                        return call.get();
+                    });
+
+            return Mono.firstWithValue(primary, hedged)
+                    .doOnSuccess(value -> this.latencyTracker.record(System.nanoTime() - startNanos))
+                    .onErrorMap(NoSuchElementException.class, RequestHedger::firstCallError);
+        });
+    }
+
+    Duration hedgeDelay() {
+        if (this.settings.percentile() <= 0 || this.latencyTracker.count() < MIN_SAMPLES) {
+            return this.settings.minDelay();
+        }
+        long percentileNanos = this.latencyTracker.percentileNanos(this.settings.percentile());
+        return Duration.ofNanos(Math.max(percentileNanos, this.settings.minDelay().toNanos()));
+    }
+
+    private synchronized void depositBudget() {
+        this.budgetTokens = Math.min(MAX_BUDGET_TOKENS, this.budgetTokens + this.settings.budgetRatio());
+    }
+
+    private synchronized boolean withdrawBudget() {
+        if (this.budgetTokens < 1) {
+            return false;
+        }
+        this.budgetTokens -= 1;
+        return true;
+    }
+
+    // firstWithValue fails with NoSuchElementException holding errors of all calls as suppressed
+    private static Throwable firstCallError(NoSuchElementException e) {
+        Throwable[] suppressed = e.getSuppressed();
+        return suppressed.length > 0 ? suppressed[0] : e;
+    }
+}
@@ -0,0 +1,119 @@
+package com.mzhokha.reactive_user_orders_service.metrics;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/*
+    Latency histograms of the stages of user orders pipeline:
+    user.orders.stage{stage, outcome}, outcome is one of success, empty, error, cancelled.
+
+    Timers publish percentile histogram, so percentiles can be aggregated across instances in Prometheus.
+ */
+public class StageTimers {
+
+    public static final String STAGE_TIMER = "user.orders.stage";
+
+    public static final String SUCCESS = "success";
+    public static final String EMPTY = "empty";
+    public static final String ERROR = "error";
+    public static final String CANCELLED = "cancelled";
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public StageTimers(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void record(String stage, String outcome, long nanos) {
+        this.timers.computeIfAbsent(stage + '|' + outcome, key -> Timer.builder(STAGE_TIMER)
+                        .tag("stage", stage)
+                        .tag("outcome", outcome)
+                        .publishPercentileHistogram()
+                        .publishPercentiles(0.5, 0.95, 0.99)
+                        .register(this.meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // time from subscription to the value, completion without value, error or cancellation
+    public <T> Mono<T> time(String stage, Mono<T> mono) {
+        return Mono.defer(() -> {
+            long startNanos = System.nanoTime();
+            AtomicBoolean recorded = new AtomicBoolean();
+            return mono
+                    .doOnEach(signal -> {
+                        if (signal.isOnComplete() && recorded.compareAndSet(false, true)) {
+                            record(stage, EMPTY, System.nanoTime() - startNanos);
+                        } else if (signal.isOnNext() && recorded.compareAndSet(false, true)) {
+                            record(stage, SUCCESS, System.nanoTime() - startNanos);
+                        } else if (signal.isOnError() && recorded.compareAndSet(false, true)) {
+                            record(stage, ERROR, System.nanoTime() - startNanos);
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        if (recorded.compareAndSet(false, true)) {
+                            record(stage, CANCELLED, System.nanoTime() - startNanos);
+                        }
+                    });
+        });
+    }
+
+    /*
+        firstElementStage - time from subscription to the first element, or to termination when there is no element
+        lastElementStage - time from subscription to completion, error or cancellation
+     */
+    public <T> Flux<T> time(String firstElementStage, String lastElementStage, Flux<T> flux) {
+        return Flux.defer(() -> {
+            long startNanos = System.nanoTime();
+            AtomicBoolean firstRecorded = new AtomicBoolean();
+            return flux
+                    .doOnNext(value -> {
+                        if (firstRecorded.compareAndSet(false, true)) {
+                            record(firstElementStage, SUCCESS, System.nanoTime() - startNanos);
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        long nanos = System.nanoTime() - startNanos;
+                        if (firstRecorded.compareAndSet(false, true)) {
+                            record(firstElementStage, EMPTY, nanos);
+                        }
+                        record(lastElementStage, SUCCESS, nanos);
+                    })
+                    .doOnError(e -> {
+                        long nanos = System.nanoTime() - startNanos;
+                        if (firstRecorded.compareAndSet(false, true)) {
+                            record(firstElementStage, ERROR, nanos);
+                        }
+                        record(lastElementStage, ERROR, nanos);
+                    })
+                    .doOnCancel(() -> {
+                        long nanos = System.nanoTime() - startNanos;
+                        if (firstRecorded.compareAndSet(false, true)) {
+                            record(firstElementStage, CANCELLED, nanos);
+                        }
+                        record(lastElementStage, CANCELLED, nanos);
+                    });
+        });
+    }
+
+    public <T> T time(String stage, Supplier<T> supplier) {
+        long startNanos = System.nanoTime();
+        try {
+            T result = supplier.get();
+            record(stage, SUCCESS, System.nanoTime() - startNanos);
+            return result;
+        } catch (RuntimeException e) {
+            record(stage, ERROR, System.nanoTime() - startNanos);
+            throw e;
+        }
+    }
+}
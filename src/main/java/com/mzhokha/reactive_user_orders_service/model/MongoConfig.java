@@ -0,0 +1,58 @@
+package com.mzhokha.reactive_user_orders_service.model;
+
+import com.mongodb.ReadPreference;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Settings of the reactive driver on top of spring.data.mongodb.* connection properties.
+
+    Command latency (mongodb.driver.commands) and pool size, checked out and wait queue gauges
+    (mongodb.driver.pool.*) come from Boot's MongoMetricsAutoConfiguration listeners,
+    see management.metrics.mongo.* properties.
+ */
+@Configuration
+public class MongoConfig {
+
+    @Value("${mongo.pool.max.size}")
+    private int poolMaxSize = 100;
+
+    @Value("${mongo.pool.min.size}")
+    private int poolMinSize = 0;
+
+    // time a command waits for a connection before failing
+    @Value("${mongo.pool.max.wait.time}")
+    private Duration poolMaxWaitTime = Duration.ofSeconds(2);
+
+    @Value("${mongo.pool.max.connection.idle.time}")
+    private Duration poolMaxConnectionIdleTime = Duration.ofMinutes(1);
+
+    @Value("${mongo.socket.connect.timeout}")
+    private Duration socketConnectTimeout = Duration.ofSeconds(2);
+
+    @Value("${mongo.socket.read.timeout}")
+    private Duration socketReadTimeout = Duration.ofSeconds(5);
+
+    // primary, primaryPreferred, secondary, secondaryPreferred or nearest
+    @Value("${mongo.read.preference}")
+    private String readPreference = "primary";
+
+    @Bean
+    public MongoClientSettingsBuilderCustomizer mongoClientSettingsCustomizer() {
+        return builder -> builder
+                .applyToConnectionPoolSettings(pool -> pool
+                        .maxSize(this.poolMaxSize)
+                        .minSize(this.poolMinSize)
+                        .maxWaitTime(this.poolMaxWaitTime.toMillis(), TimeUnit.MILLISECONDS)
+                        .maxConnectionIdleTime(this.poolMaxConnectionIdleTime.toMillis(), TimeUnit.MILLISECONDS))
+                .applyToSocketSettings(socket -> socket
+                        .connectTimeout((int) this.socketConnectTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                        .readTimeout((int) this.socketReadTimeout.toMillis(), TimeUnit.MILLISECONDS))
+                .readPreference(ReadPreference.valueOf(this.readPreference));
+    }
+}
@@ -0,0 +1,42 @@
+package com.mzhokha.reactive_user_orders_service.model;
+
+import com.mzhokha.reactive_user_orders_service.response.UserOrder;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+
+/*
+    Materialized UserOrder (best product only), one document per order of the user.
+    id is userId:orderNumber, so a refresh overwrites the same documents.
+    refreshedAt is the time the whole set of the user was computed, documents older than that are leftovers of removed orders.
+ */
+@Document("user_orders")
+public record UserOrderView(
+        @Id String id,
+        String userId,
+        String orderNumber,
+        String userName,
+        String phoneNumber,
+        String productCode,
+        String productName,
+        String productId,
+        Instant refreshedAt) {
+
+    public static UserOrderView of(String userId, UserOrder userOrder, Instant refreshedAt) {
+        return new UserOrderView(
+                userId + ':' + userOrder.orderNumber(),
+                userId,
+                userOrder.orderNumber(),
+                userOrder.userName(),
+                userOrder.phoneNumber(),
+                userOrder.productCode(),
+                userOrder.productName(),
+                userOrder.productId(),
+                refreshedAt);
+    }
+
+    public UserOrder toUserOrder() {
+        return new UserOrder(this.orderNumber, this.userName, this.phoneNumber, this.productCode, this.productName, this.productId);
+    }
+}
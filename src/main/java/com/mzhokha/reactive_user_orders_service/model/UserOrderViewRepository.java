@@ -0,0 +1,12 @@
+package com.mzhokha.reactive_user_orders_service.model;
+
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+
+@Repository
+public interface UserOrderViewRepository extends ReactiveMongoRepository<UserOrderView, String> {
+
+    // streamed from the cursor as documents arrive, backed by the userId index
+    Flux<UserOrderView> findByUserId(String userId);
+}
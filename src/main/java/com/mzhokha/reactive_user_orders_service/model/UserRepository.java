@@ -1,7 +1,23 @@
 package com.mzhokha.reactive_user_orders_service.model;
 
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.util.Collection;
+
+/*
+    users documents carry more fields than User, lookups of the service read only name and phone
+    (plus _id, which is always returned), the rest is neither transferred nor decoded.
+ */
 @Repository
-public interface UserRepository extends ReactiveMongoRepository<User, String> { }
+public interface UserRepository extends ReactiveMongoRepository<User, String> {
+
+    @Query(fields = "{'name': 1, 'phone': 1}")
+    Mono<User> findNameAndPhoneById(String id);
+
+    @Query(fields = "{'name': 1, 'phone': 1}")
+    Flux<User> findNameAndPhoneByIdIn(Collection<String> ids);
+}
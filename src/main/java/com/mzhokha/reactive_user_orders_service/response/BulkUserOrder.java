@@ -0,0 +1,6 @@
+package com.mzhokha.reactive_user_orders_service.response;
+
+public record BulkUserOrder(
+        String userId,
+        UserOrder userOrder) {
+}
@@ -1,10 +1,29 @@
 package com.mzhokha.reactive_user_orders_service.response;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+
+import java.util.List;
+
+/*
+    productCode, productName, productId are taken from the product with the highest score.
+    topProducts is present only when top-K products were requested, highest score first.
+ */
 public record UserOrder(
         String orderNumber,
         String userName,
         String phoneNumber,
         String productCode,
         String productName,
-        String productId) {
+        String productId,
+        @JsonInclude(JsonInclude.Include.NON_NULL) List<Product> topProducts) {
+
+    public UserOrder(String orderNumber,
+                     String userName,
+                     String phoneNumber,
+                     String productCode,
+                     String productName,
+                     String productId) {
+        this(orderNumber, userName, phoneNumber, productCode, productName, productId, null);
+    }
 }
@@ -0,0 +1,147 @@
+package com.mzhokha.reactive_user_orders_service.scheduler;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Round-robin across keys (a user, a bulk request) on top of a worker executor.
+
+    Every key has its own FIFO queue, keys with queued tasks wait in a ring. For every task submitted
+    the workers get one slot, and a slot runs the head task of the next key in the ring, then puts the key
+    back to the end of the ring when it has more tasks. A key with thousands of queued tasks gets
+    the same share of workers as a key with one, so small users don't wait behind a big one.
+
+    When workers reject a slot the submitted task is taken back and the rejection is thrown. Another slot may have
+    run that task already (slots don't run their own task), then some other queued task is left without a slot.
+    It stays queued and the next slot to finish its task runs it too. Nothing runs on the submitting thread,
+    which is usually a Netty event loop.
+
+    user.orders.scheduler.wait{scheduler} - time from submit to run
+    user.orders.scheduler.queue.depth{scheduler} - tasks queued across keys, user.orders.scheduler.fair.keys - keys with queued tasks
+ */
+public class FairExecutor {
+
+    public static final String KEYS_GAUGE = "user.orders.scheduler.fair.keys";
+
+    private final Executor workers;
+
+    private final Timer waitTimer;
+
+    // guarded by this
+    private final Map<Object, ArrayDeque<QueuedTask>> queues = new HashMap<>();
+
+    // guarded by this
+    private final ArrayDeque<Object> ring = new ArrayDeque<>();
+
+    // guarded by this
+    private int queued;
+
+    // guarded by this, queued tasks whose slot was rejected after another slot ran the submitted task
+    private int withoutSlot;
+
+    private record QueuedTask(Runnable task, long queuedAtNanos) {
+    }
+
+    public FairExecutor(String name, Executor workers, MeterRegistry meterRegistry) {
+        this.workers = workers;
+        this.waitTimer = InstrumentedExecutor.waitTimer(name, meterRegistry);
+        Gauge.builder(InstrumentedExecutor.QUEUE_DEPTH_GAUGE, this, FairExecutor::queued)
+                .tag("scheduler", name)
+                .register(meterRegistry);
+        Gauge.builder(KEYS_GAUGE, this, FairExecutor::keys)
+                .tag("scheduler", name)
+                .register(meterRegistry);
+    }
+
+    // scheduler whose tasks share workers fairly with the tasks of other keys
+    public Scheduler scheduler(Object key) {
+        return Schedulers.fromExecutor(task -> execute(key, task));
+    }
+
+    public void execute(Object key, Runnable task) {
+        var queuedTask = new QueuedTask(task, System.nanoTime());
+        synchronized (this) {
+            var queue = this.queues.computeIfAbsent(key, k -> new ArrayDeque<>());
+            if (queue.isEmpty()) {
+                this.ring.addLast(key);
+            }
+            queue.addLast(queuedTask);
+            this.queued++;
+        }
+        try {
+            this.workers.execute(this::runNext);
+        } catch (RejectedExecutionException e) {
+            // no slot for one task, take it back so queued tasks and slots stay equal
+            synchronized (this) {
+                var queue = this.queues.get(key);
+                if (queue == null || !queue.removeLastOccurrence(queuedTask)) {
+                    // already run by another slot, the task left without slot waits for the next slot to finish
+                    this.withoutSlot++;
+                    return;
+                }
+                this.queued--;
+                if (queue.isEmpty()) {
+                    this.queues.remove(key);
+                    this.ring.remove(key);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private void runNext() {
+        QueuedTask next;
+        synchronized (this) {
+            next = pollNext();
+        }
+        while (next != null) {
+            run(next);
+            synchronized (this) {
+                next = this.withoutSlot > 0 ? pollNext() : null;
+                if (next != null) {
+                    this.withoutSlot--;
+                }
+            }
+        }
+    }
+
+    // guarded by this
+    private QueuedTask pollNext() {
+        var key = this.ring.pollFirst();
+        if (key == null) {
+            return null;
+        }
+        var queue = this.queues.get(key);
+        var next = queue.pollFirst();
+        this.queued--;
+        if (queue.isEmpty()) {
+            this.queues.remove(key);
+        } else {
+            this.ring.addLast(key);
+        }
+        return next;
+    }
+
+    private void run(QueuedTask task) {
+        this.waitTimer.record(System.nanoTime() - task.queuedAtNanos(), TimeUnit.NANOSECONDS);
+        task.task().run();
+    }
+
+    private synchronized int queued() {
+        return this.queued;
+    }
+
+    private synchronized int keys() {
+        return this.ring.size();
+    }
+}
@@ -0,0 +1,117 @@
+package com.mzhokha.reactive_user_orders_service.scheduler;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/*
+    Fixed size pool with a bounded queue, tasks over the queue capacity are rejected (RejectedExecutionException).
+    Wrapped into a Scheduler with Schedulers.fromExecutorService.
+
+    user.orders.scheduler.wait{scheduler} - time a task spent in the queue
+    user.orders.scheduler.queue.depth{scheduler}, user.orders.scheduler.active{scheduler} - queued and running tasks
+ */
+public class InstrumentedExecutor extends ThreadPoolExecutor {
+
+    public static final String WAIT_TIMER = "user.orders.scheduler.wait";
+
+    public static final String QUEUE_DEPTH_GAUGE = "user.orders.scheduler.queue.depth";
+
+    public static final String ACTIVE_GAUGE = "user.orders.scheduler.active";
+
+    private final Timer waitTimer;
+
+    public InstrumentedExecutor(String name, int threads, int queueCapacity, MeterRegistry meterRegistry) {
+        super(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(queueCapacity), threadFactory(name));
+        this.waitTimer = waitTimer(name, meterRegistry);
+        Gauge.builder(QUEUE_DEPTH_GAUGE, this, executor -> executor.getQueue().size())
+                .tag("scheduler", name)
+                .register(meterRegistry);
+        Gauge.builder(ACTIVE_GAUGE, this, ThreadPoolExecutor::getActiveCount)
+                .tag("scheduler", name)
+                .register(meterRegistry);
+    }
+
+    static Timer waitTimer(String name, MeterRegistry meterRegistry) {
+        return Timer.builder(WAIT_TIMER)
+                .tag("scheduler", name)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    // 0 - one thread per available processor
+    public static int threads(int configured) {
+        return configured > 0 ? configured : Runtime.getRuntime().availableProcessors();
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+        return new QueuedTask<>(callable);
+    }
+
+    @Override
+    protected <T> RunnableFuture<T> newTaskFor(Runnable runnable, T value) {
+        return new QueuedTask<>(runnable, value);
+    }
+
+    // submitted tasks already come as QueuedTask, plain runnables keep their exceptions uncaught
+    @Override
+    public void execute(Runnable command) {
+        super.execute(command instanceof Queued ? command : new QueuedRunnable(command, System.nanoTime()));
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable task) {
+        if (task instanceof Queued queued) {
+            this.waitTimer.record(System.nanoTime() - queued.queuedAtNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private interface Queued {
+        long queuedAtNanos();
+    }
+
+    private record QueuedRunnable(Runnable runnable, long queuedAtNanos) implements Runnable, Queued {
+
+        @Override
+        public void run() {
+            this.runnable.run();
+        }
+    }
+
+    private static class QueuedTask<T> extends FutureTask<T> implements Queued {
+
+        private final long queuedAtNanos = System.nanoTime();
+
+        QueuedTask(Callable<T> callable) {
+            super(callable);
+        }
+
+        QueuedTask(Runnable runnable, T value) {
+            super(runnable, value);
+        }
+
+        @Override
+        public long queuedAtNanos() {
+            return this.queuedAtNanos;
+        }
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        var counter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
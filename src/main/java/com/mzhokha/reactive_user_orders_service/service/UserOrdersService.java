@@ -1,53 +1,172 @@
 package com.mzhokha.reactive_user_orders_service.service;
 
+import com.mzhokha.reactive_user_orders_service.cache.StaleWhileRevalidateCache;
+import com.mzhokha.reactive_user_orders_service.cache.UserNearCache;
 import com.mzhokha.reactive_user_orders_service.model.UserRepository;
+import com.mzhokha.reactive_user_orders_service.response.BulkUserOrder;
 import com.mzhokha.reactive_user_orders_service.response.UserOrder;
 import com.mzhokha.reactive_user_orders_service.model.User;
 import com.mzhokha.reactive_user_orders_service.external.client.OrderSearchServiceClient;
 import com.mzhokha.reactive_user_orders_service.external.client.ProductInfoServiceClient;
 import com.mzhokha.reactive_user_orders_service.external.model.Order;
 import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import com.mzhokha.reactive_user_orders_service.metrics.StageTimers;
+import com.mzhokha.reactive_user_orders_service.scheduler.FairExecutor;
+import com.mzhokha.reactive_user_orders_service.scheduler.InstrumentedExecutor;
+import com.mzhokha.reactive_user_orders_service.util.DegradationUtil;
+import com.mzhokha.reactive_user_orders_service.util.ProductRanking;
+import io.micrometer.core.instrument.MeterRegistry;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.util.StopWatch;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 import reactor.core.scheduler.Schedulers;
 
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 import static com.mzhokha.reactive_user_orders_service.util.DelayUtil.delay;
 import static com.mzhokha.reactive_user_orders_service.util.LogUtil.*;
 
 @Service
-public class UserOrdersService {
+public class UserOrdersService implements InitializingBean, DisposableBean {
 
     private static Logger log = LoggerFactory.getLogger(UserOrdersService.class);
 
+    public static final String CANCELLATION_COUNTER = "user.orders.cancellations";
+
     @Autowired
     private UserRepository userRepository;
 
+    // user lookups go through it when present
+    @Autowired(required = false)
+    private UserNearCache userNearCache;
+
     @Autowired
     private OrderSearchServiceClient orderSearchServiceClient;
 
     @Autowired
     private ProductInfoServiceClient productInfoServiceClient;
 
+    // assembled UserOrders per userId and k, see getCachedOrdersByUserId
+    @Value("${user.orders.response.cache.enabled}")
+    private boolean responseCacheEnabled = false;
+
+    // one unit per UserOrder and per product in its topProducts
+    @Value("${user.orders.response.cache.max.weight}")
+    private long responseCacheMaxWeight = 1_000_000;
+
+    @Value("${user.orders.response.cache.fresh.ttl}")
+    private Duration responseCacheFreshTtl = Duration.ofSeconds(5);
+
+    @Value("${user.orders.response.cache.stale.ttl}")
+    private Duration responseCacheStaleTtl = Duration.ofSeconds(60);
+
+    // orders requested from order-search stream at a time
+    @Value("${user.orders.order.stream.prefetch}")
+    private int orderStreamPrefetch = 32;
+
+    // product lookups in flight per user
+    @Value("${user.orders.product.lookup.concurrency}")
+    private int productLookupConcurrency = 32;
+
+    // an order whose product lookup takes longer is returned without products
+    @Value("${user.orders.product.lookup.timeout}")
+    private Duration productLookupTimeout = Duration.ofSeconds(5);
+
+    @Value("${user.orders.request.collapsing.enabled}")
+    private boolean requestCollapsingEnabled = true;
+
+    // 0 - one thread per available processor
+    @Value("${user.orders.scheduler.reduction.threads}")
+    private int reductionThreads = 0;
+
+    @Value("${user.orders.scheduler.reduction.queue.capacity}")
+    private int reductionQueueCapacity = 10_000;
+
+    @Value("${user.orders.scheduler.reduction.fair}")
+    private boolean reductionFair = true;
+
+    private final Map<UserOrdersKey, Flux<UserOrder>> inFlightPipelines = new ConcurrentHashMap<>();
+
+    private final MeterRegistry meterRegistry;
+
+    private final StageTimers stageTimers;
+
+    private StaleWhileRevalidateCache<UserOrdersKey, List<UserOrder>> responseCache;
+
+    // until afterPropertiesSet products are reduced where they arrive
+    private Scheduler reductionScheduler = Schedulers.immediate();
+
+    private InstrumentedExecutor reductionExecutor;
+
+    // null when reduction isn't fair
+    private FairExecutor fairReductionExecutor;
+
     public UserOrdersService(UserRepository userRepository,
                              OrderSearchServiceClient orderSearchServiceClient,
-                             ProductInfoServiceClient productInfoServiceClient) {
+                             ProductInfoServiceClient productInfoServiceClient,
+                             MeterRegistry meterRegistry) {
         this.userRepository = userRepository;
         this.orderSearchServiceClient = orderSearchServiceClient;
         this.productInfoServiceClient = productInfoServiceClient;
+        this.meterRegistry = meterRegistry;
+        this.stageTimers = new StageTimers(meterRegistry);
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        this.reductionExecutor = new InstrumentedExecutor("reduction",
+                InstrumentedExecutor.threads(this.reductionThreads), this.reductionQueueCapacity, this.meterRegistry);
+        this.reductionScheduler = Schedulers.fromExecutorService(this.reductionExecutor, "reduction");
+        if (this.reductionFair) {
+            this.fairReductionExecutor = new FairExecutor("reduction-fair", this.reductionExecutor, this.meterRegistry);
+        }
+
+        if (this.responseCacheEnabled) {
+            this.responseCache = new StaleWhileRevalidateCache<>("user-orders",
+                    this.responseCacheMaxWeight,
+                    UserOrdersService::weight,
+                    this.responseCacheFreshTtl,
+                    this.responseCacheStaleTtl,
+                    this.meterRegistry);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (this.reductionExecutor != null) {
+            this.reductionExecutor.shutdownNow();
+        }
+    }
+
+    record UserOrdersKey(String userId, Integer topK) {
+    }
+
+    // cacheStatus is null when the response cache is disabled
+    public record CachedUserOrders(StaleWhileRevalidateCache.Status cacheStatus, Flux<UserOrder> userOrders) {
     }
 
     record UserAndOrder(User user, Order order) {
     }
 
+    // products are ordered by score, highest first
     record UserAndOrderAndProducts(User user, Order order, List<Product> products) {
     }
 
@@ -64,6 +183,13 @@ public class UserOrdersService {
         So that we are retrieving all the products (Product 1, Product 2, ...) for current order (Order 1),
         reduce them into one needed product and return combined UserOrder object
         in the same time while Order 2 is still returned from order-search-service.
+        Reducing is done by ProductInfoServiceClient.getBestProductByCode, in streaming mode
+        while products are still being decoded from the response.
+
+        Schedulers: product lookups are non-blocking and are started where the order arrives, responses complete
+        on the Netty event loop. Products are reduced on the reduction scheduler. With fair scheduling each request (one user, or one bulk call) has its own queue in front of
+        the reduction workers and the queues are served round-robin, so a user with a huge order list takes
+        one share of the workers, not all of them.
 
         Another important thing is that for each order
         corresponding products retrieval and reducing to one Product is happening in separate thread.
@@ -71,52 +197,249 @@ public class UserOrdersService {
         1. Even orders are returned sequentially, their corresponding Products may be returned with different response time.
         1. Different Orders may have different amount of Products. The list of Products may be (theoretically very huge)
         and take significant time to process (reduce).
+
+        Latency of each stage is recorded in user.orders.stage timer (see StageTimers):
+        user.lookup, order.search.first, order.search.total, product.lookup, product.reduce (list mode only),
+        pipeline.first, pipeline.last.
      */
     public Flux<UserOrder> getOrdersByUserId(String userId) {
-        log.info("Getting UserOrders for user: {}", userId);
-        StopWatch stopWatch = new StopWatch();
-        stopWatch.start();
-
-        return this.userRepository.findById(userId)
-                .flatMapMany(user -> this.orderSearchServiceClient.getOrdersByPhoneNumber(user.phone())
-                        .doOnEach(logOnNext(order -> log.debug("Received order: {}", order)))
-                        .map(order -> new UserAndOrder(user, order))
-                )
-                .flatMap(userAndOrder -> this.productInfoServiceClient.getProductsByCode(userAndOrder.order.productCode())
-                        .subscribeOn(Schedulers.parallel())
-                        .timeout(Duration.ofSeconds(5))
-                        .doOnEach(logOnError(throwable -> log.error("Error happened during fetching products by code {}", userAndOrder.order.productCode(), throwable)))
-                        .onErrorResume(e -> Mono.just(Collections.emptyList())) // order matters, must be after logging error
-                        .doOnEach(logOnNext(products -> log.debug("Received products: {}", products)))
+        return getOrdersByUserId(userId, null);
+    }
+
+    /*
+        topK - when not null, each UserOrder carries topK products with the highest score
+
+        Concurrent calls for the same userId and topK share one pipeline (request collapsing):
+        a subscriber joining later gets the UserOrders emitted so far and then the live ones.
+        The pipeline is cancelled only when all its subscribers are gone and it is forgotten once it terminates,
+        so the next call after that starts a new one. The shared pipeline runs with the context of its first subscriber,
+        whether it was degraded (see DegradationUtil) is passed on to every subscriber when it completes.
+     */
+    public Flux<UserOrder> getOrdersByUserId(String userId, Integer topK) {
+        if (!this.requestCollapsingEnabled) {
+            return countCancellations("response", assembleOrdersByUserId(userId, topK));
+        }
+        var key = new UserOrdersKey(userId, topK);
+        var userOrders = Flux.defer(() -> this.inFlightPipelines.computeIfAbsent(key, k -> {
+            var shared = new AtomicReference<Flux<UserOrder>>();
+            var degraded = new AtomicBoolean();
+            shared.set(DegradationUtil.propagating(degraded, assembleOrdersByUserId(userId, topK)
+                    .contextWrite(DegradationUtil.tracking(degraded))
+                    .doFinally(signal -> this.inFlightPipelines.remove(k, shared.get()))
+                    .replay()
+                    .refCount()));
+            return shared.get();
+        }));
+        return countCancellations("response", userOrders);
+    }
+
+    private Flux<UserOrder> assembleOrdersByUserId(String userId, Integer topK) {
+        var userOrders = Flux.deferContextual(ctx -> {
+            logInContext(ctx, () -> log.info("Getting UserOrders for user: {}", userId));
+
+            var reductionScheduler = reductionSchedulerFor(userId);
+            return this.stageTimers.time("user.lookup", findUser(userId))
+                    .flatMapMany(user -> getOrdersOfUser(
+                            user,
+                            getOrdersByPhoneNumber(user.phone()),
+                            productCode -> getRankedProducts(productCode, topK, reductionScheduler),
+                            topK));
+        });
+
+        return countCancellations("pipeline", this.stageTimers.time("pipeline.first", "pipeline.last", userOrders));
+    }
+
+    private Mono<User> findUser(String userId) {
+        if (this.userNearCache != null) {
+            return this.userNearCache.findById(userId);
+        }
+        return this.userRepository.findNameAndPhoneById(userId);
+    }
+
+    /*
+        getOrdersByUserId through the response cache.
+        HIT and STALE replay the cached list right away, STALE also refreshes it in background.
+        MISS streams the pipeline as usual and caches the list once the stream completes,
+        a cancelled or failed stream is not cached.
+        Neither is a degraded one (see DegradationUtil): orders missing because order search was rejected,
+        or orders whose products fell back to none. A degraded refresh keeps the stale entry.
+     */
+    public CachedUserOrders getCachedOrdersByUserId(String userId, Integer topK) {
+        if (this.responseCache == null) {
+            return new CachedUserOrders(null, getOrdersByUserId(userId, topK));
+        }
+
+        var key = new UserOrdersKey(userId, topK);
+        var lookup = this.responseCache.get(key, k -> {
+            var degraded = new AtomicBoolean();
+            return getOrdersByUserId(k.userId(), k.topK())
+                    .contextWrite(DegradationUtil.tracking(degraded))
+                    .collectList()
+                    .filter(userOrders -> !degraded.get());
+        });
+        if (lookup.status() != StaleWhileRevalidateCache.Status.MISS) {
+            return new CachedUserOrders(lookup.status(), Flux.fromIterable(lookup.value()));
+        }
+
+        var userOrders = Flux.defer(() -> {
+            var collected = new ArrayList<UserOrder>();
+            var degraded = new AtomicBoolean();
+            return getOrdersByUserId(userId, topK)
+                    .doOnNext(collected::add)
+                    .doOnComplete(() -> {
+                        if (!degraded.get()) {
+                            this.responseCache.put(key, List.copyOf(collected));
+                        }
+                    })
+                    .contextWrite(DegradationUtil.tracking(degraded));
+        });
+        return new CachedUserOrders(StaleWhileRevalidateCache.Status.MISS, userOrders);
+    }
+
+    /*
+        Same flow as getOrdersByUserId but for many users in one stream:
+        all users are loaded with one DB query and their order pipelines are merged, each UserOrder tagged with userId.
+
+        Within one call order-search request is sent once per phone number
+        and product-info request once per product code, no matter how many users share them.
+        Failure of one user's order search doesn't break the stream for other users.
+     */
+    public Flux<BulkUserOrder> getOrdersByUserIds(Collection<String> userIds, Integer topK) {
+        Map<String, Flux<Order>> ordersByPhoneNumber = new ConcurrentHashMap<>();
+        Map<String, Mono<List<Product>>> rankedProductsByCode = new ConcurrentHashMap<>();
+        // the whole bulk call is one share of reduction workers
+        var reductionScheduler = reductionSchedulerFor(new Object());
+
+        var users = Flux.deferContextual(ctx -> {
+            logInContext(ctx, () -> log.info("Getting UserOrders for {} users", userIds.size()));
+
+            return this.stageTimers.time("users.lookup.first", "users.lookup.total",
+                    this.userRepository.findNameAndPhoneByIdIn(new LinkedHashSet<>(userIds)));
+        });
+
+        var bulkUserOrders = users
+                .flatMap(user -> getOrdersOfUser(
+                                user,
+                                ordersByPhoneNumber.computeIfAbsent(user.phone(), phone -> getOrdersByPhoneNumber(phone).cache()),
+                                productCode -> rankedProductsByCode.computeIfAbsent(productCode, code -> getRankedProducts(code, topK, reductionScheduler).cache()),
+                                topK)
+                        .map(userOrder -> new BulkUserOrder(user.id(), userOrder))
+                        .doOnEach(logOnError(log, Level.ERROR, throwable -> log.error("Error happened during getting orders of user {}", user.id(), throwable)))
+                        .onErrorResume(e -> DegradationUtil.degradedEmpty()));
+
+        return countCancellations("bulk.response", this.stageTimers.time("bulk.pipeline.first", "bulk.pipeline.last", bulkUserOrders));
+    }
+
+    private Flux<Order> getOrdersByPhoneNumber(String phoneNumber) {
+        return this.stageTimers.time("order.search.first", "order.search.total",
+                        this.orderSearchServiceClient.getOrdersByPhoneNumber(phoneNumber))
+                .doOnEach(logOnNext(log, Level.DEBUG, order -> log.debug("Received order: {}", order)));
+    }
+
+    /*
+        Backpressure and cancellation: orders are requested orderStreamPrefetch at a time and at most
+        productLookupConcurrency product lookups run at once, so a slow reader stops reading the order-search
+        response instead of buffering it. Cancel (client disconnect) goes up through flatMap and timeout
+        to the order-search request and every product lookup in flight. A lookup shared through the product cache
+        keeps running for the other waiters and fills the cache.
+     */
+    private Flux<UserOrder> getOrdersOfUser(User user,
+                                            Flux<Order> orders,
+                                            Function<String, Mono<List<Product>>> rankedProductsLookup,
+                                            Integer topK) {
+        return countCancellations("order.search", orders.limitRate(this.orderStreamPrefetch))
+                .map(order -> new UserAndOrder(user, order))
+                .flatMap(userAndOrder -> countCancellations("product.lookup",
+                                this.stageTimers.time("product.lookup", rankedProductsLookup.apply(userAndOrder.order.productCode())))
+                        .timeout(this.productLookupTimeout)
+                        .doOnEach(logOnError(log, Level.ERROR, throwable -> log.error("Error happened during fetching products by code {}", userAndOrder.order.productCode(), throwable)))
+                        .onErrorResume(e -> DegradationUtil.degraded(Collections.emptyList())) // order matters, must be after logging error
+                        .doOnEach(logOnNext(log, Level.DEBUG, products -> log.debug("Reduced products into: {}", products)))
                         .map(products -> new UserAndOrderAndProducts(userAndOrder.user(), userAndOrder.order(), products))
-                        .map(userAndOrderAndProducts -> {
-                            //delay(2000); // delay to simulate reducing long list of Products to one Product
-
-                            var product = userAndOrderAndProducts.products().stream()
-                                    .reduce((p1, p2) -> {
-                                        if (p1.score() > p2.score()) {
-                                            return p1;
-                                        } else {
-                                            return p2;
-                                        }
-                                    })
-                                    .orElse(new Product(null, null, null, 0));
-
-                            // log.info("Reduced products into one"); // to see that this operation is executed in separate thread for eeach Order
-
-                            return new UserOrder(
-                                    userAndOrderAndProducts.order().orderNumber(),
-                                    userAndOrderAndProducts.user().name(),
-                                    userAndOrderAndProducts.user().phone(),
-                                    product.productCode(),
-                                    product.productName(),
-                                    product.productId());
-                        })
-                )
-                .doOnComplete(() -> {
-                    stopWatch.stop();
-                    log.info("Completed in : {}", stopWatch.getTotalTimeMillis());
-                })
-                .contextWrite(ctx -> ctx.put(CONTEXT_REQUEST_ID, getRequestIdFromMdc()));
+                        .map(userAndOrderAndProducts -> toUserOrder(userAndOrderAndProducts, topK)),
+                        this.productLookupConcurrency);
+    }
+
+    // user.orders.cancellations{stage} - response and bulk.response are cancelled by the caller (client disconnect),
+    // pipeline when the last subscriber of a shared pipeline is gone, order.search and product.lookup as a consequence
+    private <T> Flux<T> countCancellations(String stage, Flux<T> flux) {
+        return flux.doOnCancel(() -> this.meterRegistry.counter(CANCELLATION_COUNTER, "stage", stage).increment());
+    }
+
+    private <T> Mono<T> countCancellations(String stage, Mono<T> mono) {
+        return mono.doOnCancel(() -> this.meterRegistry.counter(CANCELLATION_COUNTER, "stage", stage).increment());
+    }
+
+    static UserOrder toUserOrder(UserAndOrderAndProducts userAndOrderAndProducts, Integer topK) {
+        var products = userAndOrderAndProducts.products();
+        var product = products.isEmpty() ? ProductRanking.NO_PRODUCT : products.get(0);
+
+        return new UserOrder(
+                userAndOrderAndProducts.order().orderNumber(),
+                userAndOrderAndProducts.user().name(),
+                userAndOrderAndProducts.user().phone(),
+                product.productCode(),
+                product.productName(),
+                product.productId(),
+                topK != null ? products : null);
+    }
+
+    private static int weight(List<UserOrder> userOrders) {
+        int weight = 1;
+        for (UserOrder userOrder : userOrders) {
+            weight += 1 + (userOrder.topProducts() != null ? userOrder.topProducts().size() : 0);
+        }
+        return weight;
+    }
+
+    private Mono<List<Product>> getRankedProducts(String productCode, Integer topK, Scheduler reductionScheduler) {
+        if (topK == null) {
+            return this.productInfoServiceClient.getBestProductByCode(productCode, reductionScheduler).map(List::of);
+        }
+        return this.productInfoServiceClient.getTopProductsByCode(productCode, topK, reductionScheduler);
+    }
+
+    // key - what gets one share of reduction workers when reduction is fair
+    private Scheduler reductionSchedulerFor(Object key) {
+        if (this.fairReductionExecutor == null) {
+            return this.reductionScheduler;
+        }
+        return this.fairReductionExecutor.scheduler(key);
+    }
+
+    public void setOrderStreamPrefetch(int orderStreamPrefetch) {
+        this.orderStreamPrefetch = orderStreamPrefetch;
+    }
+
+    public void setProductLookupConcurrency(int productLookupConcurrency) {
+        this.productLookupConcurrency = productLookupConcurrency;
+    }
+
+    public void setProductLookupTimeout(Duration productLookupTimeout) {
+        this.productLookupTimeout = productLookupTimeout;
+    }
+
+    public void setRequestCollapsingEnabled(boolean requestCollapsingEnabled) {
+        this.requestCollapsingEnabled = requestCollapsingEnabled;
+    }
+
+    public void setResponseCacheEnabled(boolean responseCacheEnabled) {
+        this.responseCacheEnabled = responseCacheEnabled;
+    }
+
+    public void setResponseCacheFreshTtl(Duration responseCacheFreshTtl) {
+        this.responseCacheFreshTtl = responseCacheFreshTtl;
+    }
+
+    public void setReductionThreads(int reductionThreads) {
+        this.reductionThreads = reductionThreads;
+    }
+
+    public void setReductionFair(boolean reductionFair) {
+        this.reductionFair = reductionFair;
+    }
+
+    public void setUserNearCache(UserNearCache userNearCache) {
+        this.userNearCache = userNearCache;
     }
 }
@@ -0,0 +1,263 @@
+package com.mzhokha.reactive_user_orders_service.service;
+
+import com.mzhokha.reactive_user_orders_service.model.UserOrderView;
+import com.mzhokha.reactive_user_orders_service.model.UserOrderViewRepository;
+import com.mzhokha.reactive_user_orders_service.response.UserOrder;
+import com.mzhokha.reactive_user_orders_service.util.DegradationUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/*
+    Write-behind materialized view of UserOrders (best product only) in user_orders collection next to users.
+
+    Read: documents of the user are streamed from the cursor as they arrive. When there are none, orders are
+    computed by UserOrdersService, streamed to the caller and written to the view after the last one.
+    Documents older than freshness are still served, the user is queued for recompute.
+    Scheduled refresher queues users with documents older than freshness, so users not requested for a while
+    get recomputed too.
+
+    Users without orders have no documents, their requests always go to UserOrdersService. A user whose orders
+    are all gone (or who was deleted) has the documents removed by the next refresh.
+    Degraded results (see DegradationUtil), e.g. no orders because order search was rejected or orders whose
+    products fell back to none, are returned but never replace what the view has for the user.
+ */
+@Service
+@ConditionalOnProperty(name = "user.orders.view.enabled", havingValue = "true")
+public class UserOrdersViewService implements InitializingBean, DisposableBean {
+
+    private static Logger log = LoggerFactory.getLogger(UserOrdersViewService.class);
+
+    public static final String READ_COUNTER = "user.orders.view.reads";
+
+    public static final String REFRESH_COUNTER = "user.orders.view.refreshes";
+
+    @Value("${user.orders.view.freshness}")
+    Duration freshness = Duration.ofMinutes(5);
+
+    @Value("${user.orders.view.refresh.concurrency}")
+    int refreshConcurrency = 8;
+
+    @Value("${user.orders.view.refresh.batch.size}")
+    int refreshBatchSize = 500;
+
+    private final UserOrderViewRepository userOrderViewRepository;
+
+    private final ReactiveMongoTemplate mongoTemplate;
+
+    private final UserOrdersService userOrdersService;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Sinks.Many<String> refreshRequests = Sinks.many().unicast().onBackpressureBuffer();
+
+    // users queued or being recomputed, a user is queued once however many times it was found stale
+    private final Set<String> pendingRefreshes = ConcurrentHashMap.newKeySet();
+
+    private final Counter hitReads;
+
+    private final Counter staleReads;
+
+    private final Counter missReads;
+
+    private final Counter successfulRefreshes;
+
+    private final Counter skippedRefreshes;
+
+    private final Counter failedRefreshes;
+
+    private Disposable refresher;
+
+    public UserOrdersViewService(UserOrderViewRepository userOrderViewRepository,
+                                 ReactiveMongoTemplate mongoTemplate,
+                                 UserOrdersService userOrdersService,
+                                 MeterRegistry meterRegistry) {
+        this.userOrderViewRepository = userOrderViewRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.userOrdersService = userOrdersService;
+        this.meterRegistry = meterRegistry;
+
+        this.hitReads = readCounter("hit");
+        this.staleReads = readCounter("stale");
+        this.missReads = readCounter("miss");
+        this.successfulRefreshes = refreshCounter("success");
+        this.skippedRefreshes = refreshCounter("skipped");
+        this.failedRefreshes = refreshCounter("error");
+    }
+
+    @Override
+    public void afterPropertiesSet() {
+        // userId serves the reads, refreshedAt the scheduled refresher
+        var indexOps = this.mongoTemplate.indexOps(UserOrderView.class);
+        indexOps.ensureIndex(new Index().on("userId", Sort.Direction.ASC).named("userId"))
+                .then(indexOps.ensureIndex(new Index().on("refreshedAt", Sort.Direction.ASC).named("refreshedAt")))
+                .subscribe(
+                        index -> log.info("Indexes of user_orders ensured"),
+                        e -> log.error("Failed to ensure indexes of user_orders", e));
+
+        this.refresher = this.refreshRequests.asFlux()
+                .flatMap(userId -> refresh(userId)
+                                .doFinally(signal -> this.pendingRefreshes.remove(userId)),
+                        this.refreshConcurrency)
+                .subscribe();
+    }
+
+    @Override
+    public void destroy() {
+        if (this.refresher != null) {
+            this.refresher.dispose();
+        }
+    }
+
+    public Flux<UserOrder> getOrdersByUserId(String userId) {
+        return Flux.defer(() -> {
+            var staleBefore = Instant.now().minus(this.freshness);
+            var found = new AtomicBoolean();
+            var stale = new AtomicBoolean();
+            return this.userOrderViewRepository.findByUserId(userId)
+                    .doOnNext(view -> {
+                        found.set(true);
+                        if (view.refreshedAt().isBefore(staleBefore)) {
+                            stale.set(true);
+                        }
+                    })
+                    .map(UserOrderView::toUserOrder)
+                    .doOnComplete(() -> {
+                        if (stale.get()) {
+                            this.staleReads.increment();
+                            scheduleRefresh(userId);
+                        } else if (found.get()) {
+                            this.hitReads.increment();
+                        }
+                    })
+                    .switchIfEmpty(Flux.defer(() -> {
+                        this.missReads.increment();
+                        return computeAndWriteBehind(userId);
+                    }));
+        });
+    }
+
+    // queues users having documents older than freshness, at most refreshBatchSize per run
+    @Scheduled(fixedDelayString = "${user.orders.view.refresh.interval.millis}")
+    public void refreshStaleUsers() {
+        var staleBefore = Instant.now().minus(this.freshness);
+        this.mongoTemplate.findDistinct(query(where("refreshedAt").lt(staleBefore)),
+                        "userId", UserOrderView.class, String.class)
+                .take(this.refreshBatchSize)
+                .subscribe(this::scheduleRefresh, e -> log.warn("Failed to find stale users in user_orders", e));
+    }
+
+    void scheduleRefresh(String userId) {
+        if (!this.pendingRefreshes.add(userId)) {
+            return;
+        }
+        Sinks.EmitResult result;
+        // tryEmitNext fails fast on concurrent emission
+        synchronized (this.refreshRequests) {
+            result = this.refreshRequests.tryEmitNext(userId);
+        }
+        if (result.isFailure()) {
+            this.pendingRefreshes.remove(userId);
+            log.warn("Failed to queue refresh of user {}: {}", userId, result);
+        }
+    }
+
+    private Flux<UserOrder> computeAndWriteBehind(String userId) {
+        return Flux.defer(() -> {
+            List<UserOrder> userOrders = new ArrayList<>();
+            var degraded = new AtomicBoolean();
+            return this.userOrdersService.getOrdersByUserId(userId)
+                    .doOnNext(userOrders::add)
+                    // the caller does not wait for the write
+                    .doOnComplete(() -> {
+                        if (!degraded.get()) {
+                            store(userId, userOrders)
+                                    .subscribe(null, e -> log.warn("Failed to write orders of user {} to user_orders", userId, e));
+                        }
+                    })
+                    .contextWrite(DegradationUtil.tracking(degraded));
+        });
+    }
+
+    Mono<Void> refresh(String userId) {
+        var degraded = new AtomicBoolean();
+        return this.userOrdersService.getOrdersByUserId(userId)
+                .contextWrite(DegradationUtil.tracking(degraded))
+                .collectList()
+                .flatMap(userOrders -> {
+                    if (degraded.get()) {
+                        // documents of the user stay as they are, refresher picks the user again next run
+                        log.debug("Refresh of user {} skipped, orders are degraded", userId);
+                        this.skippedRefreshes.increment();
+                        return Mono.empty();
+                    }
+                    return store(userId, userOrders)
+                            .doOnSuccess(v -> this.successfulRefreshes.increment());
+                })
+                .onErrorResume(e -> {
+                    log.warn("Failed to refresh orders of user {} in user_orders", userId, e);
+                    this.failedRefreshes.increment();
+                    return Mono.empty();
+                });
+    }
+
+    /*
+        Documents are upserted by userId:orderNumber, then documents of the user not touched by this write
+        (orders no longer returned) are removed. Readers never see the user without documents in between.
+        No orders removes all documents of the user.
+     */
+    Mono<Void> store(String userId, List<UserOrder> userOrders) {
+        if (userOrders.isEmpty()) {
+            return this.mongoTemplate.remove(query(where("userId").is(userId)), UserOrderView.class).then();
+        }
+        var refreshedAt = Instant.now();
+        var views = userOrders.stream()
+                .map(userOrder -> UserOrderView.of(userId, userOrder, refreshedAt))
+                .toList();
+        return this.userOrderViewRepository.saveAll(views)
+                .then(this.mongoTemplate.remove(
+                        query(where("userId").is(userId).and("refreshedAt").lt(refreshedAt)), UserOrderView.class))
+                .then();
+    }
+
+    private Counter readCounter(String result) {
+        return Counter.builder(READ_COUNTER)
+                .tag("result", result)
+                .register(this.meterRegistry);
+    }
+
+    private Counter refreshCounter(String outcome) {
+        return Counter.builder(REFRESH_COUNTER)
+                .tag("outcome", outcome)
+                .register(this.meterRegistry);
+    }
+
+    public void setFreshness(Duration freshness) {
+        this.freshness = freshness;
+    }
+}
@@ -0,0 +1,192 @@
+package com.mzhokha.reactive_user_orders_service.service;
+
+import com.mzhokha.reactive_user_orders_service.cache.UserNearCache;
+import com.mzhokha.reactive_user_orders_service.external.client.BlockingOrderSearchServiceClient;
+import com.mzhokha.reactive_user_orders_service.external.client.BlockingProductInfoServiceClient;
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import com.mzhokha.reactive_user_orders_service.metrics.StageTimers;
+import com.mzhokha.reactive_user_orders_service.model.User;
+import com.mzhokha.reactive_user_orders_service.model.UserRepository;
+import com.mzhokha.reactive_user_orders_service.response.UserOrder;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Operators;
+
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/*
+    Same flow as UserOrdersService.getOrdersByUserId written as plain blocking code on virtual threads,
+    enabled with user.orders.execution.mode=virtual-threads.
+
+    One virtual thread per request reads orders line by line from order-search-service and starts
+    one virtual thread per order for its product lookup. Product threads live in an executor scoped
+    to the request (try-with-resources), so the request finishes only after all of them (structured concurrency
+    without the preview StructuredTaskScope API). UserOrders are pushed to a Flux as soon as they are assembled,
+    so the controller and NDJSON encoding are shared with the reactive mode.
+
+    The request thread starts a product lookup only for a UserOrder the subscriber has requested and blocks otherwise,
+    so a slow client stops reading of the order-search response instead of having its orders buffered.
+
+    Cancel of the Flux (client disconnect) interrupts the request thread, closing the executor while interrupted
+    interrupts the product threads, and blocked HTTP calls return with InterruptedException.
+    User is still read with the reactive Mongo driver, blocking the virtual thread until it arrives.
+ */
+@Service
+@ConditionalOnProperty(name = "user.orders.execution.mode", havingValue = "virtual-threads")
+public class VirtualThreadUserOrdersService {
+
+    private static Logger log = LoggerFactory.getLogger(VirtualThreadUserOrdersService.class);
+
+    private final ThreadFactory requestThreads = Thread.ofVirtual().name("user-orders-", 0).factory();
+
+    private final UserRepository userRepository;
+
+    private final BlockingOrderSearchServiceClient orderSearchServiceClient;
+
+    private final BlockingProductInfoServiceClient productInfoServiceClient;
+
+    private final StageTimers stageTimers;
+
+    // user lookups go through it when present
+    @Autowired(required = false)
+    private UserNearCache userNearCache;
+
+    public VirtualThreadUserOrdersService(UserRepository userRepository,
+                                          BlockingOrderSearchServiceClient orderSearchServiceClient,
+                                          BlockingProductInfoServiceClient productInfoServiceClient,
+                                          MeterRegistry meterRegistry) {
+        this.userRepository = userRepository;
+        this.orderSearchServiceClient = orderSearchServiceClient;
+        this.productInfoServiceClient = productInfoServiceClient;
+        this.stageTimers = new StageTimers(meterRegistry);
+    }
+
+    public Flux<UserOrder> getOrdersByUserId(String userId, Integer topK) {
+        Flux<UserOrder> userOrders = Flux.create(sink -> {
+            var demand = new Demand();
+            sink.onRequest(demand::add);
+            var requestThread = this.requestThreads.newThread(() -> assemble(userId, topK, sink, demand));
+            sink.onCancel(requestThread::interrupt);
+            requestThread.start();
+        }, FluxSink.OverflowStrategy.BUFFER);
+
+        return this.stageTimers.time("pipeline.first", "pipeline.last", userOrders);
+    }
+
+    private void assemble(String userId, Integer topK, FluxSink<UserOrder> sink, Demand demand) {
+        log.info("Getting UserOrders for user: {}", userId);
+        try {
+            User user = this.stageTimers.time("user.lookup", () -> findUser(userId).block());
+            if (user == null) {
+                sink.complete();
+                return;
+            }
+
+            long orderSearchStartNanos = System.nanoTime();
+            try (var productLookups = Executors.newVirtualThreadPerTaskExecutor()) {
+                this.orderSearchServiceClient.forEachOrderByPhoneNumber(user.phone(), order -> {
+                    log.debug("Received order: {}", order);
+                    demand.take();
+                    productLookups.submit(() -> {
+                        var products = getRankedProducts(order.productCode(), topK);
+                        var userAndOrderAndProducts = new UserOrdersService.UserAndOrderAndProducts(user, order, products);
+                        sink.next(UserOrdersService.toUserOrder(userAndOrderAndProducts, topK));
+                    });
+                });
+                this.stageTimers.record("order.search.total", StageTimers.SUCCESS, System.nanoTime() - orderSearchStartNanos);
+            }
+            sink.complete();
+        } catch (InterruptedException e) {
+            // cancelled, nobody is listening anymore
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            if (sink.isCancelled()) {
+                // interrupted read surfaces as IOException
+                return;
+            }
+            log.error("Error happened during getting orders of user {}", userId, e);
+            sink.error(e);
+        }
+    }
+
+    // same fallback as the reactive pipeline: order without products when lookup fails
+    private List<Product> getRankedProducts(String productCode, Integer topK) {
+        long startNanos = System.nanoTime();
+        try {
+            var products = topK == null
+                    ? List.of(this.productInfoServiceClient.getBestProductByCode(productCode))
+                    : this.productInfoServiceClient.getTopProductsByCode(productCode, topK);
+            this.stageTimers.record("product.lookup", StageTimers.SUCCESS, System.nanoTime() - startNanos);
+            log.debug("Reduced products into: {}", products);
+            return products;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.stageTimers.record("product.lookup", StageTimers.CANCELLED, System.nanoTime() - startNanos);
+            return List.of();
+        } catch (Exception e) {
+            this.stageTimers.record("product.lookup", StageTimers.ERROR, System.nanoTime() - startNanos);
+            log.error("Error happened during fetching products by code {}", productCode, e);
+            return List.of();
+        }
+    }
+
+    /*
+        UserOrders requested by the subscriber and not claimed by a product lookup yet.
+        Lock and condition rather than a monitor, a virtual thread waiting on a monitor pins its carrier thread.
+     */
+    private static final class Demand {
+
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private final Condition requested = this.lock.newCondition();
+
+        private long outstanding; // guarded by lock
+
+        void add(long n) {
+            this.lock.lock();
+            try {
+                this.outstanding = Operators.addCap(this.outstanding, n);
+                this.requested.signalAll();
+            } finally {
+                this.lock.unlock();
+            }
+        }
+
+        // blocks until one more UserOrder is requested, cancel interrupts the wait
+        void take() {
+            this.lock.lock();
+            try {
+                while (this.outstanding == 0) {
+                    this.requested.await();
+                }
+                if (this.outstanding != Long.MAX_VALUE) {
+                    this.outstanding--;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException("UserOrders are no longer requested");
+            } finally {
+                this.lock.unlock();
+            }
+        }
+    }
+
+    private Mono<User> findUser(String userId) {
+        if (this.userNearCache != null) {
+            return this.userNearCache.findById(userId);
+        }
+        return this.userRepository.findNameAndPhoneById(userId);
+    }
+}
@@ -0,0 +1,60 @@
+package com.mzhokha.reactive_user_orders_service.util;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/*
+    Fallbacks (rejected call, timeout, failed lookup) turn into normal values: an order without products,
+    no orders at all. That is fine to return to the caller, but such a degraded result must not be cached
+    or stored as if it were real.
+
+    Whoever keeps results subscribes with tracking(flag), fallbacks mark the flag found in the Reactor Context,
+    once the stream completes the flag tells whether any of its values came from a fallback.
+    Without a flag in the Context marking does nothing.
+ */
+public class DegradationUtil {
+
+    private static final String CONTEXT_DEGRADED = "contextDegraded";
+
+    public static Function<Context, Context> tracking(AtomicBoolean degraded) {
+        return context -> context.put(CONTEXT_DEGRADED, degraded);
+    }
+
+    public static void markDegraded(ContextView context) {
+        AtomicBoolean degraded = context.getOrDefault(CONTEXT_DEGRADED, null);
+        if (degraded != null) {
+            degraded.set(true);
+        }
+    }
+
+    // fallback value, marks the result degraded
+    public static <T> Mono<T> degraded(T fallback) {
+        return Mono.deferContextual(context -> {
+            markDegraded(context);
+            return Mono.just(fallback);
+        });
+    }
+
+    // fallback to nothing, marks the result degraded
+    public static <T> Flux<T> degradedEmpty() {
+        return Flux.deferContextual(context -> {
+            markDegraded(context);
+            return Flux.empty();
+        });
+    }
+
+    // for a stream tracked by its own flag and shared by subscribers with different Contexts:
+    // on completion the subscriber's flag is marked when the shared one is
+    public static <T> Flux<T> propagating(AtomicBoolean degraded, Flux<T> shared) {
+        return Flux.deferContextual(context -> shared.doOnComplete(() -> {
+            if (degraded.get()) {
+                markDegraded(context);
+            }
+        }));
+    }
+}
@@ -1,50 +1,60 @@
 package com.mzhokha.reactive_user_orders_service.util;
 
+import org.slf4j.Logger;
 import org.slf4j.MDC;
+import org.slf4j.event.Level;
 import reactor.core.publisher.Signal;
+import reactor.util.context.ContextView;
 
-import java.util.Optional;
 import java.util.function.Consumer;
 
+/*
+    Request id travels in the Reactor Context (put there by RequestIdWebFilter) and is copied into MDC
+    only for the duration of a log statement which is actually going to be written.
+    When the level is disabled, the signal costs one type check and one level check, nothing is allocated.
+ */
 public class LogUtil {
 
     public static final String REQUEST_ID = "requestId";
 
     public static final String CONTEXT_REQUEST_ID = "contextRequestId";
 
-    public static void putRequestIdIntoMdc(String requestId) {
-        MDC.put(REQUEST_ID, requestId);
-    }
-
-    public static String getRequestIdFromMdc() {
-        return MDC.get(REQUEST_ID);
-    }
-
-    public static <T> Consumer<Signal<T>> logOnError(Consumer<Throwable> logStatement) {
+    public static <T> Consumer<Signal<T>> logOnError(Logger logger, Level level, Consumer<Throwable> logStatement) {
         return signal -> {
-            if (!signal.isOnError()) return;
-            Optional<String> contextualRequestIdOptional = signal.getContextView().getOrEmpty(CONTEXT_REQUEST_ID);
-
-            contextualRequestIdOptional.ifPresentOrElse(contextualRequestId -> {
-                        try (MDC.MDCCloseable cMdc = MDC.putCloseable(REQUEST_ID, contextualRequestId)) {
-                            logStatement.accept(signal.getThrowable());
-                        }
-                    },
-                    () -> logStatement.accept(signal.getThrowable()));
+            if (!signal.isOnError() || !logger.isEnabledForLevel(level)) return;
+            logWithRequestId(signal.getContextView(), logStatement, signal.getThrowable());
         };
     }
 
-    public static <T> Consumer<Signal<T>> logOnNext(Consumer<T> logStatement) {
+    public static <T> Consumer<Signal<T>> logOnNext(Logger logger, Level level, Consumer<T> logStatement) {
         return signal -> {
-            if (!signal.isOnNext()) return;
-            Optional<String> contextualRequestIdOptional = signal.getContextView().getOrEmpty(CONTEXT_REQUEST_ID);
-
-            contextualRequestIdOptional.ifPresentOrElse(contextualRequestId -> {
-                        try (MDC.MDCCloseable cMdc = MDC.putCloseable(REQUEST_ID, contextualRequestId)) {
-                            logStatement.accept(signal.get());
-                        }
-                    },
-                    () -> logStatement.accept(signal.get()));
+            if (!signal.isOnNext() || !logger.isEnabledForLevel(level)) return;
+            logWithRequestId(signal.getContextView(), logStatement, signal.get());
         };
     }
+
+    // for log statements outside of signals, e.g. inside Flux.deferContextual
+    public static void logInContext(ContextView context, Runnable logStatement) {
+        logWithRequestId(context, ignored -> logStatement.run(), null);
+    }
+
+    private static <V> void logWithRequestId(ContextView context, Consumer<V> logStatement, V value) {
+        String requestId = context.getOrDefault(CONTEXT_REQUEST_ID, null);
+        if (requestId == null) {
+            logStatement.accept(value);
+            return;
+        }
+        // the thread may be serving another request which has its own id in MDC
+        String previousRequestId = MDC.get(REQUEST_ID);
+        MDC.put(REQUEST_ID, requestId);
+        try {
+            logStatement.accept(value);
+        } finally {
+            if (previousRequestId != null) {
+                MDC.put(REQUEST_ID, previousRequestId);
+            } else {
+                MDC.remove(REQUEST_ID);
+            }
+        }
+    }
 }
@@ -0,0 +1,26 @@
+package com.mzhokha.reactive_user_orders_service.util;
+
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+
+import java.util.List;
+
+public class ProductRanking {
+
+    // used for the order whose products couldn't be retrieved
+    public static final Product NO_PRODUCT = new Product(null, null, null, 0);
+
+    // reducer keeping only the product with the highest score, on equal score the later one wins
+    public static Product higherScore(Product p1, Product p2) {
+        if (p1.score() > p2.score()) {
+            return p1;
+        } else {
+            return p2;
+        }
+    }
+
+    public static Product best(List<Product> products) {
+        return products.stream()
+                .reduce(ProductRanking::higherScore)
+                .orElse(NO_PRODUCT);
+    }
+}
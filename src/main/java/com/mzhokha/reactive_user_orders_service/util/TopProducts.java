@@ -0,0 +1,101 @@
+package com.mzhokha.reactive_user_orders_service.util;
+
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+
+import java.util.Arrays;
+import java.util.List;
+
+/*
+    Keeps K products with the highest score out of a stream of products.
+
+    Bounded min-heap over primitive scores: the root is the lowest kept score, so a new product
+    either is dropped with one comparison or replaces the root in O(log k). Whole list is never sorted.
+    On equal score the later product wins, same as ProductRanking.higherScore.
+
+    Not thread safe, meant to be used as the accumulator of a single reduce.
+ */
+public class TopProducts {
+
+    private final double[] scores;
+
+    private final Product[] products;
+
+    private int size;
+
+    public TopProducts(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.scores = new double[k];
+        this.products = new Product[k];
+    }
+
+    public static List<Product> of(List<Product> products, int k) {
+        var topProducts = new TopProducts(k);
+        for (Product product : products) {
+            topProducts.offer(product);
+        }
+        return topProducts.toList();
+    }
+
+    public TopProducts offer(Product product) {
+        double score = product.score();
+        if (this.size < this.scores.length) {
+            siftUp(this.size++, score, product);
+        } else if (score >= this.scores[0]) {
+            siftDown(this.scores, this.products, this.size, score, product);
+        }
+        return this;
+    }
+
+    // highest score first
+    public List<Product> toList() {
+        double[] heapScores = Arrays.copyOf(this.scores, this.size);
+        Product[] heapProducts = Arrays.copyOf(this.products, this.size);
+
+        Product[] result = new Product[this.size];
+        for (int heapSize = this.size; heapSize > 0; heapSize--) {
+            result[heapSize - 1] = heapProducts[0];
+            int last = heapSize - 1;
+            siftDown(heapScores, heapProducts, last, heapScores[last], heapProducts[last]);
+        }
+        return Arrays.asList(result);
+    }
+
+    private void siftUp(int index, double score, Product product) {
+        while (index > 0) {
+            int parent = (index - 1) >>> 1;
+            if (this.scores[parent] <= score) {
+                break;
+            }
+            this.scores[index] = this.scores[parent];
+            this.products[index] = this.products[parent];
+            index = parent;
+        }
+        this.scores[index] = score;
+        this.products[index] = product;
+    }
+
+    // puts product to the root of heap of given size and restores heap order
+    private static void siftDown(double[] scores, Product[] products, int size, double score, Product product) {
+        int index = 0;
+        int half = size >>> 1;
+        while (index < half) {
+            int child = 2 * index + 1;
+            int right = child + 1;
+            if (right < size && scores[right] < scores[child]) {
+                child = right;
+            }
+            if (score <= scores[child]) {
+                break;
+            }
+            scores[index] = scores[child];
+            products[index] = products[child];
+            index = child;
+        }
+        if (size > 0) {
+            scores[index] = score;
+            products[index] = product;
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package com.mzhokha.reactive_user_orders_service.cache;
+
+import com.mongodb.client.model.changestream.OperationType;
+import com.mzhokha.reactive_user_orders_service.model.User;
+import com.mzhokha.reactive_user_orders_service.model.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// change stream is stood in by a sink, a new one per subscription like a reopened stream
+class TestUserNearCache {
+
+    private final UserRepository userRepositoryMock = mock(UserRepository.class);
+
+    private final AtomicInteger changeStreamSubscriptions = new AtomicInteger();
+
+    private volatile Sinks.Many<UserNearCache.UserChange> userChanges;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private UserNearCache userNearCache;
+
+    private final User user = new User("user1", "John Success", "123456789");
+
+    @BeforeEach
+    void setUp() {
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.userNearCache = new UserNearCache(this.userRepositoryMock, Mono.just(true), () -> {
+            this.userChanges = Sinks.many().unicast().onBackpressureBuffer();
+            this.changeStreamSubscriptions.incrementAndGet();
+            return this.userChanges.asFlux();
+        });
+        this.userNearCache.setMeterRegistry(this.meterRegistry);
+        this.userNearCache.setChangeStreamRetryBackoff(Duration.ofMillis(10));
+        this.userNearCache.afterPropertiesSet();
+
+        when(this.userRepositoryMock.findNameAndPhoneById(this.user.id())).thenReturn(Mono.just(this.user));
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.userNearCache.destroy();
+    }
+
+    @Test
+    void findById_whenRequestedTwice_readUserFromRepositoryOnce() {
+        // when
+        this.userNearCache.findById(this.user.id()).block();
+        var userMono = this.userNearCache.findById(this.user.id());
+
+        // then
+        StepVerifier.create(userMono)
+                .expectNext(this.user)
+                .verifyComplete();
+
+        verify(this.userRepositoryMock, times(1)).findNameAndPhoneById(this.user.id());
+    }
+
+    @Test
+    void findById_whenUserUpdatedInMongo_readUpdatedUserFromRepository() {
+        // given
+        this.userNearCache.findById(this.user.id()).block();
+        var updatedUser = new User(this.user.id(), "John Success", "999999999");
+
+        // when
+        this.userChanges.tryEmitNext(new UserNearCache.UserChange(OperationType.UPDATE, this.user.id()));
+        when(this.userRepositoryMock.findNameAndPhoneById(this.user.id())).thenReturn(Mono.just(updatedUser));
+
+        // then
+        StepVerifier.create(this.userNearCache.findById(this.user.id()))
+                .expectNext(updatedUser)
+                .verifyComplete();
+
+        verify(this.userRepositoryMock, times(2)).findNameAndPhoneById(this.user.id());
+    }
+
+    @Test
+    void findById_whenLoadStartedBeforeUpdateFinishesAfterIt_doNotCacheUserReadBeforeUpdate() {
+        // given
+        Sinks.One<User> loadBeforeUpdate = Sinks.one();
+        when(this.userRepositoryMock.findNameAndPhoneById(this.user.id())).thenReturn(loadBeforeUpdate.asMono());
+        var userMono = this.userNearCache.findById(this.user.id()).toFuture();
+        var updatedUser = new User(this.user.id(), "John Success", "999999999");
+
+        // when
+        this.userChanges.tryEmitNext(new UserNearCache.UserChange(OperationType.UPDATE, this.user.id()));
+        loadBeforeUpdate.tryEmitValue(this.user);
+        when(this.userRepositoryMock.findNameAndPhoneById(this.user.id())).thenReturn(Mono.just(updatedUser));
+
+        // then
+        assertEquals(this.user, userMono.join());
+        StepVerifier.create(this.userNearCache.findById(this.user.id()))
+                .expectNext(updatedUser)
+                .verifyComplete();
+    }
+
+    @Test
+    void findById_whenUserDeletedInMongo_readUserFromRepositoryAgain() {
+        // given
+        this.userNearCache.findById(this.user.id()).block();
+
+        // when
+        this.userChanges.tryEmitNext(new UserNearCache.UserChange(OperationType.DELETE, this.user.id()));
+        when(this.userRepositoryMock.findNameAndPhoneById(this.user.id())).thenReturn(Mono.empty());
+
+        // then
+        StepVerifier.create(this.userNearCache.findById(this.user.id()))
+                .verifyComplete();
+
+        verify(this.userRepositoryMock, times(2)).findNameAndPhoneById(this.user.id());
+    }
+
+    @Test
+    void findById_whenChangeStreamFailed_clearCacheAndReopenStream() throws Exception {
+        // given
+        this.userNearCache.findById(this.user.id()).block();
+
+        // when
+        this.userChanges.tryEmitError(new IllegalStateException("connection reset"));
+        for (int i = 0; i < 50 && this.changeStreamSubscriptions.get() < 2; i++) {
+            Thread.sleep(20);
+        }
+
+        // then
+        assertEquals(2, this.changeStreamSubscriptions.get());
+        assertEquals(1, this.meterRegistry.get(UserNearCache.CHANGE_STREAM_RESTART_COUNTER).counter().count());
+
+        this.userNearCache.findById(this.user.id()).block();
+        verify(this.userRepositoryMock, times(2)).findNameAndPhoneById(this.user.id());
+    }
+
+    @Test
+    void findById_whenChangeStreamEnded_reopenStreamAndKeepEvictingUpdatedUsers() throws Exception {
+        // given
+        this.userChanges.tryEmitNext(new UserNearCache.UserChange(OperationType.INVALIDATE, null));
+        this.userChanges.tryEmitComplete();
+        for (int i = 0; i < 50 && this.changeStreamSubscriptions.get() < 2; i++) {
+            Thread.sleep(20);
+        }
+        this.userNearCache.findById(this.user.id()).block();
+        var updatedUser = new User(this.user.id(), "John Success", "999999999");
+
+        // when
+        this.userChanges.tryEmitNext(new UserNearCache.UserChange(OperationType.UPDATE, this.user.id()));
+        when(this.userRepositoryMock.findNameAndPhoneById(this.user.id())).thenReturn(Mono.just(updatedUser));
+
+        // then
+        assertEquals(2, this.changeStreamSubscriptions.get());
+        assertEquals(1, this.meterRegistry.get(UserNearCache.CHANGE_STREAM_RESTART_COUNTER).counter().count());
+        StepVerifier.create(this.userNearCache.findById(this.user.id()))
+                .expectNext(updatedUser)
+                .verifyComplete();
+    }
+
+    @Test
+    void findById_whenMongoDoesNotSupportChangeStreams_doNotOpenStreamAndCacheUsers() {
+        // given
+        var standaloneSubscriptions = new AtomicInteger();
+        var standaloneNearCache = new UserNearCache(this.userRepositoryMock, Mono.just(false), () -> {
+            standaloneSubscriptions.incrementAndGet();
+            return Sinks.many().unicast().<UserNearCache.UserChange>onBackpressureBuffer().asFlux();
+        });
+        standaloneNearCache.setMeterRegistry(this.meterRegistry);
+        standaloneNearCache.afterPropertiesSet();
+
+        // when
+        standaloneNearCache.findById(this.user.id()).block();
+        var userMono = standaloneNearCache.findById(this.user.id());
+
+        // then
+        StepVerifier.create(userMono)
+                .expectNext(this.user)
+                .verifyComplete();
+
+        assertEquals(0, standaloneSubscriptions.get());
+        verify(this.userRepositoryMock, times(1)).findNameAndPhoneById(this.user.id());
+
+        standaloneNearCache.destroy();
+    }
+}
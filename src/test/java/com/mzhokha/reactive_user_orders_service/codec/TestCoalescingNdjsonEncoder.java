@@ -0,0 +1,190 @@
+package com.mzhokha.reactive_user_orders_service.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mzhokha.reactive_user_orders_service.response.BulkUserOrder;
+import com.mzhokha.reactive_user_orders_service.response.UserOrder;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.ByteArrayOutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestCoalescingNdjsonEncoder {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    @Test
+    void encode_whenFlushPolicyByCount_firstLineAloneThenGroupsOfMaxElements() throws Exception {
+        // given
+        var encoder = userOrderEncoder(new CoalescingNdjsonEncoder.FlushPolicy(3, Duration.ofSeconds(10), Integer.MAX_VALUE));
+        var userOrders = userOrders(7);
+
+        // when
+        var buffers = encoder.encode(Flux.fromIterable(userOrders), this.bufferFactory,
+                        ResolvableType.forClass(UserOrder.class), MediaType.APPLICATION_NDJSON, null)
+                .collectList()
+                .block();
+
+        // then
+        var lineCounts = new ArrayList<Integer>();
+        var actual = new ByteArrayOutputStream();
+        for (DataBuffer buffer : buffers) {
+            var bytes = toBytes(buffer);
+            lineCounts.add(lineCount(bytes));
+            actual.write(bytes);
+        }
+        assertEquals(List.of(1, 3, 3), lineCounts);
+        assertArrayEquals(jacksonLines(userOrders), actual.toByteArray());
+    }
+
+    @Test
+    void encode_whenFlushPolicyByBytes_groupIsCutWhenMaxBytesReached() {
+        // given
+        var encoder = userOrderEncoder(new CoalescingNdjsonEncoder.FlushPolicy(100, Duration.ofSeconds(10), 1));
+
+        // when
+        var buffers = encoder.encode(Flux.fromIterable(userOrders(4)), this.bufferFactory,
+                        ResolvableType.forClass(UserOrder.class), MediaType.APPLICATION_NDJSON, null)
+                .collectList()
+                .block();
+
+        // then
+        assertEquals(List.of(1, 1, 1, 1), buffers.stream().map(buffer -> lineCount(toBytes(buffer))).toList());
+    }
+
+    @Test
+    void encode_whenFlushPolicyByTime_firstLineRightAwayThenGroupAfterMaxDelay() {
+        // given
+        var maxDelay = Duration.ofMillis(50);
+        var encoder = userOrderEncoder(new CoalescingNdjsonEncoder.FlushPolicy(100, maxDelay, Integer.MAX_VALUE));
+
+        // when
+        // then
+        StepVerifier.withVirtualTime(() -> encoder.encode(Flux.fromIterable(userOrders(3)).concatWith(Flux.never()), this.bufferFactory,
+                        ResolvableType.forClass(UserOrder.class), MediaType.APPLICATION_NDJSON, null))
+                .consumeNextWith(buffer -> assertEquals(1, lineCount(toBytes(buffer))))
+                .expectNoEvent(maxDelay.minusMillis(1))
+                .thenAwait(Duration.ofMillis(1))
+                .consumeNextWith(buffer -> assertEquals(2, lineCount(toBytes(buffer))))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void encode_whenClientDoesNotRequestPastMaxDelay_emitGroupOnNextRequestWithoutError() {
+        // given
+        var maxDelay = Duration.ofMillis(50);
+        var encoder = userOrderEncoder(new CoalescingNdjsonEncoder.FlushPolicy(100, maxDelay, Integer.MAX_VALUE));
+
+        // when
+        // then
+        StepVerifier.withVirtualTime(() -> encoder.encode(Flux.fromIterable(userOrders(3)).concatWith(Flux.never()), this.bufferFactory,
+                        ResolvableType.forClass(UserOrder.class), MediaType.APPLICATION_NDJSON, null), 0)
+                .thenRequest(1)
+                .consumeNextWith(buffer -> assertEquals(1, lineCount(toBytes(buffer))))
+                .expectNoEvent(maxDelay.multipliedBy(3))
+                .thenRequest(1)
+                .thenAwait(maxDelay)
+                .consumeNextWith(buffer -> assertEquals(2, lineCount(toBytes(buffer))))
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    void encode_whenJacksonWritesLines_coalesceThemLikeUserOrderLines() throws Exception {
+        // given
+        var encoder = new CoalescingNdjsonEncoder<>(
+                new Jackson2JsonEncoder(this.objectMapper, MediaType.APPLICATION_NDJSON),
+                new CoalescingNdjsonEncoder.FlushPolicy(3, Duration.ofSeconds(10), Integer.MAX_VALUE));
+        var bulkUserOrders = userOrders(4).stream()
+                .map(userOrder -> new BulkUserOrder("user1", userOrder))
+                .toList();
+
+        // when
+        var buffers = encoder.encode(Flux.fromIterable(bulkUserOrders), this.bufferFactory,
+                        ResolvableType.forClass(BulkUserOrder.class), MediaType.APPLICATION_NDJSON, null)
+                .collectList()
+                .block();
+
+        // then
+        var lineCounts = new ArrayList<Integer>();
+        var actual = new ByteArrayOutputStream();
+        for (DataBuffer buffer : buffers) {
+            var bytes = toBytes(buffer);
+            lineCounts.add(lineCount(bytes));
+            actual.write(bytes);
+        }
+        assertEquals(List.of(1, 3), lineCounts);
+        assertArrayEquals(jacksonLines(bulkUserOrders), actual.toByteArray());
+    }
+
+    @Test
+    void canEncode_onlyNdjsonOfTypesTheDelegateEncodes() {
+        var encoder = new CoalescingNdjsonEncoder<>(
+                new Jackson2JsonEncoder(this.objectMapper, MediaType.APPLICATION_NDJSON),
+                CoalescingNdjsonEncoder.FlushPolicy.EACH_ELEMENT);
+
+        assertTrue(encoder.canEncode(ResolvableType.forClass(BulkUserOrder.class), MediaType.APPLICATION_NDJSON));
+        assertFalse(encoder.canEncode(ResolvableType.forClass(BulkUserOrder.class), MediaType.APPLICATION_JSON));
+        assertFalse(encoder.canEncode(ResolvableType.forClass(BulkUserOrder.class), null));
+    }
+
+    private static CoalescingNdjsonEncoder<UserOrder> userOrderEncoder(CoalescingNdjsonEncoder.FlushPolicy flushPolicy) {
+        return new CoalescingNdjsonEncoder<>(new UserOrderNdjsonEncoder(), flushPolicy);
+    }
+
+    private static List<UserOrder> userOrders(int count) {
+        var userOrders = new ArrayList<UserOrder>();
+        for (int i = 0; i < count; i++) {
+            userOrders.add(new UserOrder("Order_" + i, "Alex", "123123123", "3852", "IPhone", "222"));
+        }
+        return userOrders;
+    }
+
+    private byte[] jacksonLines(List<?> values) throws Exception {
+        var lines = new ByteArrayOutputStream();
+        for (Object value : values) {
+            lines.write(this.objectMapper.writeValueAsBytes(value));
+            lines.write('\n');
+        }
+        return lines.toByteArray();
+    }
+
+    private static int lineCount(byte[] bytes) {
+        int count = 0;
+        for (byte b : bytes) {
+            if (b == '\n') {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static byte[] toBytes(DataBuffer buffer) {
+        try {
+            var bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            return bytes;
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package com.mzhokha.reactive_user_orders_service.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import com.mzhokha.reactive_user_orders_service.response.UserOrder;
+import com.mzhokha.reactive_user_orders_service.util.ProductRanking;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.NettyDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import reactor.core.publisher.Flux;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestUserOrderNdjsonEncoder {
+
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+
+    private final NettyDataBufferFactory bufferFactory = new NettyDataBufferFactory(PooledByteBufAllocator.DEFAULT);
+
+    private final UserOrderNdjsonEncoder encoder = new UserOrderNdjsonEncoder();
+
+    @Test
+    void encode_whenBestProductOnly_writeSameBytesAsJackson() throws Exception {
+        assertSameAsJackson(new UserOrder("Order_0", "Alex", "123123123", "3852", "IPhone", "222"));
+    }
+
+    @Test
+    void encode_whenNoProduct_writeNullsLikeJackson() throws Exception {
+        var product = ProductRanking.NO_PRODUCT;
+        assertSameAsJackson(new UserOrder("Order_0", "Alex", "123123123",
+                product.productCode(), product.productName(), product.productId()));
+    }
+
+    @Test
+    void encode_whenTopProducts_writeSameBytesAsJackson() throws Exception {
+        assertSameAsJackson(new UserOrder("Order_0", "Alex", "123123123", "3852", "IPhone", "222", List.of(
+                new Product("222", "3852", "IPhone", 1568.0),
+                new Product("111", "3852", "Samsung", 0.00001),
+                new Product("333", "3852", "Pixel", 12345678901.5),
+                new Product("444", "3852", null, -0.0),
+                new Product("555", "3852", "Nokia", Double.NaN),
+                new Product("666", "3852", "Xiaomi", Double.POSITIVE_INFINITY))));
+    }
+
+    @Test
+    void encode_whenTopProductsEmpty_writeEmptyArrayLikeJackson() throws Exception {
+        assertSameAsJackson(new UserOrder("Order_0", "Alex", "123123123", null, null, null, List.of()));
+    }
+
+    @Test
+    void encode_whenStringsNeedEscaping_writeSameBytesAsJackson() throws Exception {
+        assertSameAsJackson(new UserOrder(
+                "Order \"0\" \\ /",
+                "Tab\tNewLine\nReturn\rBackspace\bFormFeed\f\u0000\u0001\u001f\u007f",
+                "+38 (067) 123",
+                "caf\u00e9 Gr\u00f6\u00dfe",
+                "\u0422\u0435\u043b\u0435\u0444\u043e\u043d \u65e5\u672c\u8a9e \u20ac",
+                "smile \uD83D\uDE00 lone \uD83D end \uDE00"));
+    }
+
+    @Test
+    void encode_whenFlux_writeOneLinePerUserOrder() throws Exception {
+        // given
+        var userOrders = List.of(
+                new UserOrder("Order_0", "Alex", "123123123", "3852", "IPhone", "222"),
+                new UserOrder("Order_1", "Alex", "123123123", "5256", "Samsung", "111"));
+
+        // when
+        var buffers = this.encoder.encode(Flux.fromIterable(userOrders), this.bufferFactory,
+                        ResolvableType.forClass(UserOrder.class), MediaType.APPLICATION_NDJSON, null)
+                .collectList()
+                .block();
+
+        // then
+        var actual = new ByteArrayOutputStream();
+        for (DataBuffer buffer : buffers) {
+            actual.write(toBytes(buffer));
+        }
+        assertArrayEquals(jacksonLines(userOrders), actual.toByteArray());
+    }
+
+    @Test
+    void canEncode_onlyUserOrderAsNdjson() {
+        assertTrue(this.encoder.canEncode(ResolvableType.forClass(UserOrder.class), MediaType.APPLICATION_NDJSON));
+        assertFalse(this.encoder.canEncode(ResolvableType.forClass(UserOrder.class), MediaType.APPLICATION_JSON));
+        assertFalse(this.encoder.canEncode(ResolvableType.forClass(Object.class), MediaType.APPLICATION_NDJSON));
+        assertFalse(this.encoder.canEncode(ResolvableType.forClass(Product.class), MediaType.APPLICATION_NDJSON));
+    }
+
+    private byte[] jacksonLines(List<UserOrder> userOrders) throws Exception {
+        var lines = new ByteArrayOutputStream();
+        for (UserOrder userOrder : userOrders) {
+            lines.write(this.objectMapper.writeValueAsBytes(userOrder));
+            lines.write('\n');
+        }
+        return lines.toByteArray();
+    }
+
+    private void assertSameAsJackson(UserOrder userOrder) throws Exception {
+        // given
+        var expected = this.objectMapper.writeValueAsBytes(userOrder);
+        var expectedLine = Arrays.copyOf(expected, expected.length + 1);
+        expectedLine[expected.length] = '\n';
+
+        // when
+        var actualLine = toBytes(this.encoder.encode(userOrder, this.bufferFactory, true));
+
+        // then
+        assertArrayEquals(expectedLine, actualLine, () -> new String(actualLine));
+    }
+
+    private static byte[] toBytes(DataBuffer buffer) {
+        try {
+            var bytes = new byte[buffer.readableByteCount()];
+            buffer.read(bytes);
+            return bytes;
+        } finally {
+            DataBufferUtils.release(buffer);
+        }
+    }
+}
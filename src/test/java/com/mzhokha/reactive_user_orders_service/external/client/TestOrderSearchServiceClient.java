@@ -0,0 +1,91 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
+import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import com.mzhokha.reactive_user_orders_service.external.model.Order;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+
+@WireMockTest
+class TestOrderSearchServiceClient {
+
+    private OrderSearchServiceClient orderSearchServiceClient;
+
+    @BeforeEach
+    void setUp(WireMockRuntimeInfo wmRuntimeInfo) throws Exception {
+        orderSearchServiceClient = new OrderSearchServiceClient();
+        orderSearchServiceClient.setOrderSearchServiceBaseUrl(wmRuntimeInfo.getHttpBaseUrl());
+        orderSearchServiceClient.setMeterRegistry(new SimpleMeterRegistry());
+        orderSearchServiceClient.setCacheEnabled(true);
+        orderSearchServiceClient.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() {
+        orderSearchServiceClient.destroy();
+    }
+
+    @Test
+    void getOrdersByPhoneNumber_whenOrdersCached_returnCachedOrdersAndRequestOnlyNewOnes() {
+        // given
+        orderSearchServiceClient.getOrdersByPhoneNumber("123456789").blockLast();
+
+        // when
+        var ordersFlux = orderSearchServiceClient.getOrdersByPhoneNumber("123456789");
+
+        // then
+        StepVerifier.create(ordersFlux.map(Order::orderNumber))
+                .expectNext("Order_0", "Order_1", "Order_2")
+                .verifyComplete();
+
+        verify(1, getRequestedFor(urlEqualTo("/orderSearchService/order/phone?phoneNumber=123456789")));
+        verify(1, getRequestedFor(urlEqualTo("/orderSearchService/order/phone?phoneNumber=123456789&since=Order_1")));
+    }
+
+    @Test
+    void getOrdersByPhoneNumber_whenNewOrdersAppended_nextIncrementStartsAfterThem() {
+        // given
+        orderSearchServiceClient.getOrdersByPhoneNumber("123456789").blockLast();
+        orderSearchServiceClient.getOrdersByPhoneNumber("123456789").blockLast();
+
+        // when
+        var ordersFlux = orderSearchServiceClient.getOrdersByPhoneNumber("123456789");
+
+        // then
+        // no mapping for since=Order_2, order-search-service answers 404 and all orders are loaded again
+        StepVerifier.create(ordersFlux.map(Order::orderNumber))
+                .expectNext("Order_0", "Order_1", "Order_2")
+                .verifyComplete();
+
+        verify(1, getRequestedFor(urlEqualTo("/orderSearchService/order/phone?phoneNumber=123456789&since=Order_2")));
+        verify(2, getRequestedFor(urlEqualTo("/orderSearchService/order/phone?phoneNumber=123456789")));
+    }
+
+    @Test
+    void getOrdersByPhoneNumber_whenHistoryOlderThanFullReloadInterval_loadAllOrders() throws Exception {
+        // given
+        orderSearchServiceClient.destroy();
+        orderSearchServiceClient.setCacheFullReloadInterval(Duration.ZERO);
+        orderSearchServiceClient.afterPropertiesSet();
+        orderSearchServiceClient.getOrdersByPhoneNumber("987654321").blockLast();
+
+        // when
+        var ordersFlux = orderSearchServiceClient.getOrdersByPhoneNumber("987654321");
+
+        // then
+        StepVerifier.create(ordersFlux)
+                .expectNextCount(2)
+                .verifyComplete();
+
+        verify(2, getRequestedFor(urlEqualTo("/orderSearchService/order/phone?phoneNumber=987654321")));
+    }
+}
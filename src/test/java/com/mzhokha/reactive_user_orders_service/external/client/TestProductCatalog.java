@@ -0,0 +1,108 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Mono;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestProductCatalog {
+
+    // products the fake batch endpoint returns per code
+    private final Map<String, List<Product>> upstream = new ConcurrentHashMap<>(Map.of(
+            "3852", List.of(new Product("111", "3852", "IceCream", 2628.65), new Product("222", "3852", "Milk", 2657.65)),
+            "5256", List.of(new Product("333", "5256", "Meal", 9940.79))));
+
+    private final List<Collection<String>> batchRequests = new ArrayList<>();
+
+    private ProductCatalog productCatalog;
+
+    @AfterEach
+    void tearDown() {
+        this.productCatalog.dispose();
+    }
+
+    @Test
+    void get_whenInitialCodesLoaded_returnBestProductWithoutUpstreamCall() {
+        // given
+        this.productCatalog = catalog(null, List.of("3852", "5256"));
+
+        // when
+        this.productCatalog.start();
+
+        // then
+        assertEquals(new Product("222", "3852", "Milk", 2657.65), this.productCatalog.get("3852"));
+        assertEquals(new Product("333", "5256", "Meal", 9940.79), this.productCatalog.get("5256"));
+        assertNull(this.productCatalog.get("9822"));
+        assertEquals(1, this.batchRequests.size());
+    }
+
+    @Test
+    void refresh_whenCodeAddedAndUpstreamChanged_mergeAddedCodeAndDropCodeWithoutProducts() {
+        // given
+        this.productCatalog = catalog(null, List.of("3852", "5256"));
+        this.productCatalog.start();
+        this.productCatalog.add("7894", new Product("555", "7894", "Bread", 100));
+        this.upstream.remove("5256");
+
+        // when
+        this.productCatalog.refresh().block();
+
+        // then
+        assertEquals(2, this.productCatalog.snapshot().size());
+        assertEquals("555", this.productCatalog.get("7894").productId());
+        assertNull(this.productCatalog.get("5256"));
+    }
+
+    @Test
+    void start_whenSnapshotFileLeftByPreviousRun_serveItWithoutInitialLoad(@TempDir Path dir) throws Exception {
+        // given
+        var file = dir.resolve("product-catalog.bin");
+        var previousRun = catalog(file, List.of("3852", "5256"));
+        previousRun.start();
+        // the file is written in background
+        for (int i = 0; i < 50 && !Files.exists(file); i++) {
+            Thread.sleep(100);
+        }
+        previousRun.dispose();
+        this.batchRequests.clear();
+        this.productCatalog = catalog(file, List.of("3852", "5256"));
+
+        // when
+        this.productCatalog.start();
+
+        // then
+        assertEquals("222", this.productCatalog.get("3852").productId());
+        assertEquals("333", this.productCatalog.get("5256").productId());
+        assertTrue(this.batchRequests.isEmpty());
+        assertTrue(this.productCatalog.snapshot().heapBytes() > 0);
+    }
+
+    private ProductCatalog catalog(Path file, List<String> initialCodes) {
+        return new ProductCatalog("test",
+                new ProductCatalog.Settings(file, initialCodes, 1000, Duration.ofHours(1), 1000, 50),
+                this::batchFetch,
+                new SimpleMeterRegistry());
+    }
+
+    private Mono<List<Product>> batchFetch(Collection<String> productCodes) {
+        this.batchRequests.add(List.copyOf(productCodes));
+        return Mono.just(productCodes.stream()
+                .flatMap(productCode -> this.upstream.getOrDefault(productCode, List.of()).stream())
+                .toList());
+    }
+}
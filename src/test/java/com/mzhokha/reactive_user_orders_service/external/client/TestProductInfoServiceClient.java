@@ -0,0 +1,202 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
+import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@WireMockTest
+class TestProductInfoServiceClient {
+
+    private String wireMockBaseUrl;
+
+    private ProductInfoServiceClient productInfoServiceClient;
+
+    @BeforeEach
+    void setUp(WireMockRuntimeInfo wmRuntimeInfo) throws Exception {
+        wireMockBaseUrl = wmRuntimeInfo.getHttpBaseUrl();
+
+        productInfoServiceClient = new ProductInfoServiceClient();
+        productInfoServiceClient.setProductInfoServiceBaseUrl(wireMockBaseUrl);
+        productInfoServiceClient.setMeterRegistry(new SimpleMeterRegistry());
+        productInfoServiceClient.afterPropertiesSet();
+    }
+
+    @AfterEach
+    void tearDown() {
+        productInfoServiceClient.destroy();
+    }
+
+    @Test
+    void getProductsByCode_whenConcurrentLookupsOfSameCode_sendOneRequest() {
+        // when
+        var productsMono = Mono.zip(
+                productInfoServiceClient.getProductsByCode("3852"),
+                productInfoServiceClient.getProductsByCode("3852"));
+
+        // then
+        StepVerifier.create(productsMono)
+                .assertNext(products -> assertEquals(products.getT1(), products.getT2()))
+                .verifyComplete();
+
+        verify(1, getRequestedFor(urlEqualTo("/productInfoService/product/names?productCode=3852")));
+    }
+
+    @Test
+    void getProductsByCode_whenCodeRequestedAgain_serveFromCache() {
+        // when
+        productInfoServiceClient.getProductsByCode("5256").block();
+        productInfoServiceClient.getProductsByCode("5256").block();
+
+        // then
+        verify(1, getRequestedFor(urlEqualTo("/productInfoService/product/names?productCode=5256")));
+
+        var stats = productInfoServiceClient.getProductsCacheStats();
+        assertEquals(1, stats.hitCount());
+        assertEquals(1, stats.missCount());
+    }
+
+    @Test
+    void getProductsByCode_whenRequestFailed_doNotCacheError() {
+        // when
+        StepVerifier.create(productInfoServiceClient.getProductsByCode("9822"))
+                .verifyError();
+        StepVerifier.create(productInfoServiceClient.getProductsByCode("9822"))
+                .verifyError();
+
+        // then
+        verify(2, getRequestedFor(urlEqualTo("/productInfoService/product/names?productCode=9822")));
+    }
+
+    @Test
+    void getProductsByCode_whenBatchingEnabled_sendOneBatchRequestAndSliceResultPerCode() throws Exception {
+        // given
+        var batchingClient = batchingClient();
+
+        // when
+        var productsMono = Mono.zip(
+                batchingClient.getProductsByCode("3852"),
+                batchingClient.getProductsByCode("5256"));
+
+        // then
+        StepVerifier.create(productsMono)
+                .assertNext(products -> {
+                    assertEquals(2, products.getT1().size());
+                    assertEquals(1, products.getT2().size());
+                })
+                .verifyComplete();
+
+        verify(1, getRequestedFor(urlEqualTo("/productInfoService/product/names/batch?productCodes=3852,5256")));
+        verify(0, getRequestedFor(urlPathEqualTo("/productInfoService/product/names")));
+
+        batchingClient.destroy();
+    }
+
+    @Test
+    void getProductsByCode_whenBatchEndpointUnavailable_fallbackToPerCodeRequest() throws Exception {
+        // given
+        var batchingClient = batchingClient();
+
+        // when
+        var productsMono = batchingClient.getProductsByCode("3852");
+
+        // then
+        StepVerifier.create(productsMono)
+                .assertNext(products -> assertEquals(4, products.size()))
+                .verifyComplete();
+
+        verify(1, getRequestedFor(urlEqualTo("/productInfoService/product/names?productCode=3852")));
+
+        batchingClient.destroy();
+    }
+
+    @Test
+    void getProductsByCode_whenBatchResponseIsEmpty_completeLookupWithNoProducts() throws Exception {
+        // given
+        var batchingClient = batchingClient();
+
+        // when
+        var productsMono = batchingClient.getProductsByCode("1111");
+
+        // then
+        StepVerifier.create(productsMono)
+                .assertNext(products -> assertTrue(products.isEmpty()))
+                .expectComplete()
+                .verify(Duration.ofSeconds(2));
+
+        verify(1, getRequestedFor(urlEqualTo("/productInfoService/product/names/batch?productCodes=1111")));
+
+        batchingClient.destroy();
+    }
+
+    @Test
+    void getProductsByCode_whenUpstreamNeverResponds_openCircuitAndReturnNoProductsRightAway() throws Exception {
+        // given
+        var client = new ProductInfoServiceClient();
+        client.setProductInfoServiceBaseUrl(wireMockBaseUrl);
+        client.setMeterRegistry(new SimpleMeterRegistry());
+        client.setCacheEnabled(false);
+        client.setResponseTimeout(Duration.ofMillis(200));
+        client.setCircuitBreakerSlidingWindowSize(2);
+        client.afterPropertiesSet();
+
+        // when
+        for (int i = 0; i < 2; i++) {
+            StepVerifier.create(client.getProductsByCode("7894"))
+                    .expectError()
+                    .verify(Duration.ofSeconds(2));
+        }
+
+        // then
+        StepVerifier.create(client.getProductsByCode("7894"))
+                .assertNext(products -> assertTrue(products.isEmpty()))
+                .expectComplete()
+                .verify(Duration.ofMillis(100));
+
+        verify(2, getRequestedFor(urlEqualTo("/productInfoService/product/names?productCode=7894")));
+
+        client.destroy();
+    }
+
+    @Test
+    void getBestProductByCode_whenStreamingEnabled_returnProductWithHighestScore() throws Exception {
+        // given
+        var streamingClient = new ProductInfoServiceClient();
+        streamingClient.setProductInfoServiceBaseUrl(wireMockBaseUrl);
+        streamingClient.setMeterRegistry(new SimpleMeterRegistry());
+        streamingClient.setStreamingEnabled(true);
+        streamingClient.afterPropertiesSet();
+
+        // when
+        var productMono = streamingClient.getBestProductByCode("3852");
+
+        // then
+        StepVerifier.create(productMono)
+                .assertNext(product -> assertEquals("222", product.productId()))
+                .verifyComplete();
+    }
+
+    private ProductInfoServiceClient batchingClient() throws Exception {
+        var batchingClient = new ProductInfoServiceClient();
+        batchingClient.setProductInfoServiceBaseUrl(wireMockBaseUrl);
+        batchingClient.setMeterRegistry(new SimpleMeterRegistry());
+        batchingClient.setCacheEnabled(false);
+        batchingClient.setBatchEnabled(true);
+        batchingClient.setBatchWindow(Duration.ofMillis(50));
+        batchingClient.afterPropertiesSet();
+        return batchingClient;
+    }
+}
@@ -0,0 +1,44 @@
+package com.mzhokha.reactive_user_orders_service.external.client;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class TestReadTimeoutInputStream {
+
+    @Test
+    void read_whenBodyStalls_failWithTimeout() throws IOException {
+        // given
+        var stalledBody = new PipedInputStream(new PipedOutputStream());
+
+        // when
+        try (var body = new ReadTimeoutInputStream(stalledBody, Duration.ofMillis(100))) {
+
+            // then
+            assertThrows(HttpTimeoutException.class, body::read);
+            assertFalse(Thread.currentThread().isInterrupted());
+        }
+    }
+
+    @Test
+    void read_whenBodyArrivesInTime_returnIt() throws IOException {
+        // given
+        var bytes = "[]".getBytes();
+
+        // when
+        try (var body = new ReadTimeoutInputStream(new ByteArrayInputStream(bytes), Duration.ofSeconds(1))) {
+
+            // then
+            assertArrayEquals(bytes, body.readAllBytes());
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.mzhokha.reactive_user_orders_service.external.resilience;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TestAdaptiveConcurrencyLimiter {
+
+    @Test
+    void limit_whenCallFailsWithOverload_decreaseLimit() {
+        // given
+        var limiter = limiter(10, 1000);
+
+        // when
+        StepVerifier.create(limiter.limit(Mono.error(new TimeoutException())))
+                .verifyError(TimeoutException.class);
+
+        // then
+        assertEquals(9, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void limit_whenLimitReached_queueCallUntilPermitReleased() {
+        // given
+        var limiter = limiter(1, 1000);
+        Sinks.One<String> firstCall = Sinks.one();
+
+        // when
+        var first = limiter.limit(firstCall.asMono()).subscribe();
+        var second = limiter.limit(Mono.just("second"));
+
+        // then
+        assertEquals(1, limiter.getInFlight());
+        StepVerifier.create(second)
+                .then(() -> assertEquals(1, limiter.getQueued()))
+                .then(() -> firstCall.tryEmitValue("first"))
+                .expectNext("second")
+                .verifyComplete();
+        assertEquals(0, limiter.getQueued());
+        assertEquals(0, limiter.getInFlight());
+        first.dispose();
+    }
+
+    @Test
+    void limit_whenQueueIsFull_failFast() {
+        // given
+        var limiter = limiter(1, 0);
+        var first = limiter.limit(Mono.never()).subscribe();
+
+        // when
+        var second = limiter.limit(Mono.just("second"));
+
+        // then
+        StepVerifier.create(second)
+                .verifyError(AdaptiveConcurrencyLimiter.LimitExceededException.class);
+        first.dispose();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void limit_whenQueuedCallCancelled_removeItFromQueue() {
+        // given
+        var limiter = limiter(1, 1000);
+        var first = limiter.limit(Mono.never()).subscribe();
+
+        // when
+        var second = limiter.limit(Mono.just("second")).subscribe();
+        second.dispose();
+
+        // then
+        assertEquals(0, limiter.getQueued());
+        first.dispose();
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    void limit_whenStreamIsReadSlowerThanLatencyThreshold_doNotDecreaseLimit() {
+        // given
+        var limiter = limiter(10, 1000, Duration.ofMillis(50));
+
+        // when
+        StepVerifier.create(limiter.limit(Flux.just("first", "second")), 1)
+                .expectNext("first")
+                .thenAwait(Duration.ofMillis(200))
+                .thenRequest(1)
+                .expectNext("second")
+                .verifyComplete();
+
+        // then
+        assertEquals(10, limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(int initialLimit, int maxQueueSize) {
+        return limiter(initialLimit, maxQueueSize, Duration.ofSeconds(1));
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(int initialLimit, int maxQueueSize, Duration latencyThreshold) {
+        return new AdaptiveConcurrencyLimiter("test",
+                new AdaptiveConcurrencyLimiter.Settings(initialLimit, 1, 100, latencyThreshold, 0.9, maxQueueSize),
+                new SimpleMeterRegistry());
+    }
+}
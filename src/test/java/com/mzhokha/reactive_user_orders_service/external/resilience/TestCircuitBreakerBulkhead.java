@@ -0,0 +1,90 @@
+package com.mzhokha.reactive_user_orders_service.external.resilience;
+
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TestCircuitBreakerBulkhead {
+
+    @Test
+    void guard_whenFailureRateExceeded_openCircuitAndFailFastWithoutCallingUpstream() {
+        // given
+        var meterRegistry = new SimpleMeterRegistry();
+        var circuitBreakerBulkhead = new CircuitBreakerBulkhead("test", settings(10), meterRegistry);
+        var calls = new AtomicInteger();
+        var failingCall = Mono.defer(() -> {
+            calls.incrementAndGet();
+            return Mono.error(new IllegalStateException("upstream failed"));
+        });
+
+        // when
+        for (int i = 0; i < 4; i++) {
+            StepVerifier.create(circuitBreakerBulkhead.guard(failingCall))
+                    .verifyError(IllegalStateException.class);
+        }
+
+        // then
+        assertEquals(CircuitBreaker.State.OPEN, circuitBreakerBulkhead.getState());
+        StepVerifier.create(circuitBreakerBulkhead.guard(failingCall))
+                .verifyError(CallNotPermittedException.class);
+        assertEquals(4, calls.get());
+        assertEquals(1, meterRegistry.get("upstream.circuit.breaker.transitions")
+                .tag("to", "OPEN")
+                .counter()
+                .count());
+    }
+
+    @Test
+    void guard_whenBulkheadIsFull_rejectCallWithoutOpeningCircuit() {
+        // given
+        var circuitBreakerBulkhead = new CircuitBreakerBulkhead("test", settings(1), new SimpleMeterRegistry());
+        var first = circuitBreakerBulkhead.guard(Mono.never()).subscribe();
+
+        // when
+        var second = circuitBreakerBulkhead.guard(Mono.just("second"));
+
+        // then
+        StepVerifier.create(second)
+                .verifyError(BulkheadFullException.class);
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreakerBulkhead.getState());
+        first.dispose();
+    }
+
+    @Test
+    void guard_whenStreamIsReadSlowerThanSlowCallThreshold_keepCircuitClosed() {
+        // given
+        var circuitBreakerBulkhead = new CircuitBreakerBulkhead("test", settings(10, Duration.ofMillis(50)), new SimpleMeterRegistry());
+
+        // when
+        for (int i = 0; i < 4; i++) {
+            StepVerifier.create(circuitBreakerBulkhead.guard(Flux.just("first", "second")), 1)
+                    .expectNext("first")
+                    .thenAwait(Duration.ofMillis(100))
+                    .thenRequest(1)
+                    .expectNext("second")
+                    .verifyComplete();
+        }
+
+        // then
+        assertEquals(CircuitBreaker.State.CLOSED, circuitBreakerBulkhead.getState());
+    }
+
+    private static CircuitBreakerBulkhead.Settings settings(int bulkheadMaxConcurrentCalls) {
+        return settings(bulkheadMaxConcurrentCalls, Duration.ofSeconds(1));
+    }
+
+    private static CircuitBreakerBulkhead.Settings settings(int bulkheadMaxConcurrentCalls, Duration slowCallDurationThreshold) {
+        return new CircuitBreakerBulkhead.Settings(4, 50, 100, slowCallDurationThreshold,
+                Duration.ofMinutes(1), 1, bulkheadMaxConcurrentCalls);
+    }
+}
@@ -0,0 +1,94 @@
+package com.mzhokha.reactive_user_orders_service.external.resilience;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TestRequestHedger {
+
+    @Test
+    void hedge_whenFirstCallIsSlow_returnResultOfHedgedCall() {
+        // given
+        var hedger = hedger(1);
+        var attempts = new AtomicInteger();
+
+        // when
+        var result = hedger.hedge(() -> attempts.incrementAndGet() == 1 ? Mono.never() : Mono.just("hedged"));
+
+        // then
+        StepVerifier.create(result)
+                .expectNext("hedged")
+                .verifyComplete();
+        assertEquals(2, attempts.get());
+    }
+
+    @Test
+    void hedge_whenFirstCallIsFast_doNotSendHedgedCall() {
+        // given
+        var hedger = hedger(1);
+        var attempts = new AtomicInteger();
+
+        // when
+        var result = hedger.hedge(() -> {
+            attempts.incrementAndGet();
+            return Mono.just("first");
+        });
+
+        // then
+        StepVerifier.create(result)
+                .expectNext("first")
+                .verifyComplete();
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void hedge_whenBudgetExhausted_waitForFirstCall() {
+        // given
+        var hedger = hedger(0);
+        var attempts = new AtomicInteger();
+
+        // when
+        var result = hedger.hedge(() -> {
+            attempts.incrementAndGet();
+            return Mono.never();
+        });
+
+        // then
+        StepVerifier.create(result)
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(200))
+                .thenCancel()
+                .verify();
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void hedge_whenFirstCallFails_returnItsErrorWithoutHedging() {
+        // given
+        var hedger = hedger(1);
+        var attempts = new AtomicInteger();
+
+        // when
+        var result = hedger.hedge(() -> {
+            attempts.incrementAndGet();
+            return Mono.error(new IllegalStateException("upstream failed"));
+        });
+
+        // then
+        StepVerifier.create(result)
+                .verifyError(IllegalStateException.class);
+        assertEquals(1, attempts.get());
+    }
+
+    private static RequestHedger hedger(double budgetRatio) {
+        return new RequestHedger("test",
+                new RequestHedger.Settings(Duration.ofMillis(50), 0.95, budgetRatio),
+                new SimpleMeterRegistry());
+    }
+}
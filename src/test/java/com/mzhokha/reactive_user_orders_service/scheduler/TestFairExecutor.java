@@ -0,0 +1,147 @@
+package com.mzhokha.reactive_user_orders_service.scheduler;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestFairExecutor {
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private InstrumentedExecutor workers;
+
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @BeforeEach
+    void setUp() {
+        this.meterRegistry = new SimpleMeterRegistry();
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.release.countDown();
+        if (this.workers != null) {
+            this.workers.shutdownNow();
+        }
+    }
+
+    @Test
+    void execute_whenOneKeyHasManyQueuedTasks_taskOfAnotherKeyDoesNotWaitBehindThem() throws Exception {
+        // given
+        this.workers = new InstrumentedExecutor("test", 1, 1000, this.meterRegistry);
+        var fairExecutor = new FairExecutor("test-fair", this.workers, this.meterRegistry);
+        List<String> executed = Collections.synchronizedList(new ArrayList<>());
+        var done = new CountDownLatch(101);
+        var started = new CountDownLatch(1);
+
+        fairExecutor.execute("whale", () -> {
+            started.countDown();
+            awaitRelease();
+            executed.add("whale");
+            done.countDown();
+        });
+        awaitUninterruptibly(started);
+        for (int i = 0; i < 99; i++) {
+            fairExecutor.execute("whale", () -> {
+                executed.add("whale");
+                done.countDown();
+            });
+        }
+
+        // when
+        fairExecutor.execute("small", () -> {
+            executed.add("small");
+            done.countDown();
+        });
+        this.release.countDown();
+
+        // then
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, executed.indexOf("small"));
+        assertEquals(101, this.meterRegistry.get(InstrumentedExecutor.WAIT_TIMER).tag("scheduler", "test-fair").timer().count());
+    }
+
+    @Test
+    void execute_whenWorkersQueueIsFull_rejectTaskAndKeepItOutOfKeyQueue() {
+        // given
+        this.workers = new InstrumentedExecutor("test", 1, 1, this.meterRegistry);
+        var fairExecutor = new FairExecutor("test-fair", this.workers, this.meterRegistry);
+        var started = new CountDownLatch(1);
+        fairExecutor.execute("user1", () -> {
+            started.countDown();
+            awaitRelease();
+        });
+        awaitUninterruptibly(started);
+        fairExecutor.execute("user1", () -> { });
+
+        // when
+        assertThrows(RejectedExecutionException.class, () -> fairExecutor.execute("user2", () -> { }));
+
+        // then
+        assertEquals(1, this.meterRegistry.get(InstrumentedExecutor.QUEUE_DEPTH_GAUGE).tag("scheduler", "test-fair").gauge().value());
+        assertEquals(1, this.meterRegistry.get(FairExecutor.KEYS_GAUGE).tag("scheduler", "test-fair").gauge().value());
+    }
+
+    @Test
+    void execute_whenSlotRejectedAfterAnotherSlotRanTheTask_runTaskLeftWithoutSlotInNextSlot() throws Exception {
+        // given
+        var firstSlot = new AtomicBoolean(true);
+        var firstSlotSubmitted = new CountDownLatch(1);
+        var rejectFirstSlot = new CountDownLatch(1);
+        // first slot is rejected only after the second one, run right away, took the first task
+        Executor workers = slot -> {
+            if (firstSlot.compareAndSet(true, false)) {
+                firstSlotSubmitted.countDown();
+                awaitUninterruptibly(rejectFirstSlot);
+                throw new RejectedExecutionException("workers queue is full");
+            }
+            slot.run();
+        };
+        var fairExecutor = new FairExecutor("test-fair", workers, this.meterRegistry);
+        List<String> executed = Collections.synchronizedList(new ArrayList<>());
+
+        var first = CompletableFuture.runAsync(() -> fairExecutor.execute("user1", () -> executed.add("user1")));
+        awaitUninterruptibly(firstSlotSubmitted);
+        fairExecutor.execute("user2", () -> executed.add("user2"));
+
+        // when
+        rejectFirstSlot.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        var executedBeforeNextSlot = List.copyOf(executed);
+        fairExecutor.execute("user3", () -> executed.add("user3"));
+
+        // then
+        // not run on the submitting thread, which got no rejection either
+        assertEquals(List.of("user1"), executedBeforeNextSlot);
+        assertEquals(List.of("user1", "user2", "user3"), executed);
+        assertEquals(0, this.meterRegistry.get(InstrumentedExecutor.QUEUE_DEPTH_GAUGE).tag("scheduler", "test-fair").gauge().value());
+        assertEquals(0, this.meterRegistry.get(FairExecutor.KEYS_GAUGE).tag("scheduler", "test-fair").gauge().value());
+    }
+
+    private void awaitRelease() {
+        awaitUninterruptibly(this.release);
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
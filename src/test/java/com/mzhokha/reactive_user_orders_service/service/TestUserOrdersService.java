@@ -2,26 +2,40 @@ package com.mzhokha.reactive_user_orders_service.service;
 
 import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
 import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import com.mzhokha.reactive_user_orders_service.cache.StaleWhileRevalidateCache;
 import com.mzhokha.reactive_user_orders_service.model.UserRepository;
 import com.mzhokha.reactive_user_orders_service.model.User;
 import com.mzhokha.reactive_user_orders_service.external.client.OrderSearchServiceClient;
 import com.mzhokha.reactive_user_orders_service.external.client.ProductInfoServiceClient;
-import com.mzhokha.reactive_user_orders_service.util.LogUtil;
+import com.mzhokha.reactive_user_orders_service.util.DegradationUtil;
+import com.mzhokha.reactive_user_orders_service.util.ProductRanking;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 import reactor.test.StepVerifier;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static com.mzhokha.reactive_user_orders_service.metrics.StageTimers.STAGE_TIMER;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @WireMockTest
 class TestUserOrdersService {
 
-    static {
-        LogUtil.putRequestIdIntoMdc("testRequestId");
-    }
-
     private final UserRepository userRepositoryMock = mock(UserRepository.class);
 
     private OrderSearchServiceClient orderSearchServiceClient;
@@ -30,6 +44,8 @@ class TestUserOrdersService {
 
     private UserOrdersService userOrdersService;
 
+    private SimpleMeterRegistry meterRegistry;
+
     @BeforeEach
     void setUp(WireMockRuntimeInfo wmRuntimeInfo) throws Exception {
         String wireMockBaseUrl = wmRuntimeInfo.getHttpBaseUrl();
@@ -42,17 +58,20 @@ class TestUserOrdersService {
         productInfoServiceClient.setProductInfoServiceBaseUrl(wireMockBaseUrl);
         productInfoServiceClient.afterPropertiesSet();
 
+        this.meterRegistry = new SimpleMeterRegistry();
+
         this.userOrdersService = new UserOrdersService(
                 this.userRepositoryMock,
                 this.orderSearchServiceClient,
-                this.productInfoServiceClient);
+                this.productInfoServiceClient,
+                this.meterRegistry);
     }
 
     @Test
     void getOrdersByUserId_whenEverythingPresent_returnUserOrders() {
         // given
         var userId = "user1";
-        when(this.userRepositoryMock.findById(userId))
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
                 .thenReturn(Mono.just(new User(userId, "John Success", "123456789")));
 
         // when
@@ -68,7 +87,7 @@ class TestUserOrdersService {
     void getOrdersByUserId_whenProductInfoRequestTimedOut_returnUserOrderWithoutProductInfo() {
         // given
         var userId = "user2";
-        when(this.userRepositoryMock.findById(userId))
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
                 .thenReturn(Mono.just(new User(userId, "Mark Timeout", "987654321")));
 
         // when
@@ -84,7 +103,7 @@ class TestUserOrdersService {
     void getOrdersByUserId_whenProductInfoRespondsWithError_returnUserOrderWithoutProductInfo() {
         // given
         var userId = "user3";
-        when(this.userRepositoryMock.findById(userId))
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
                 .thenReturn(Mono.just(new User(userId, "David Error", "111111111")));
 
         // when
@@ -95,4 +114,245 @@ class TestUserOrdersService {
                 .expectNextCount(2)
                 .verifyComplete();
     }
-}
\ No newline at end of file
+
+    @Test
+    void getOrdersByUserId_whenTopKRequested_returnUserOrdersWithTopKProducts() {
+        // given
+        var userId = "user1";
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "John Success", "123456789")));
+
+        // when
+        var userOrdersFlux = userOrdersService.getOrdersByUserId(userId, 2);
+
+        // then
+        StepVerifier.create(userOrdersFlux.log())
+                .recordWith(ArrayList::new)
+                .expectNextCount(2)
+                .consumeRecordedWith(userOrders -> userOrders.forEach(userOrder -> {
+                    assertEquals(2, userOrder.topProducts().size());
+                    assertEquals(userOrder.productId(), userOrder.topProducts().get(0).productId());
+                }))
+                .verifyComplete();
+    }
+
+    @Test
+    void getOrdersByUserIds_whenUsersShareProductCodes_returnTaggedUserOrdersAndFetchEachCodeOnce() {
+        // given
+        when(this.userRepositoryMock.findNameAndPhoneByIdIn(anyCollection()))
+                .thenReturn(Flux.just(
+                        new User("user1", "John Success", "123456789"),
+                        new User("user3", "David Error", "111111111")));
+
+        // when
+        var userOrdersFlux = userOrdersService.getOrdersByUserIds(List.of("user1", "user3"), null);
+
+        // then
+        StepVerifier.create(userOrdersFlux.log())
+                .recordWith(ArrayList::new)
+                .expectNextCount(4)
+                .consumeRecordedWith(userOrders -> {
+                    assertEquals(2, userOrders.stream().filter(userOrder -> "user1".equals(userOrder.userId())).count());
+                    assertEquals(2, userOrders.stream().filter(userOrder -> "user3".equals(userOrder.userId())).count());
+                })
+                .verifyComplete();
+
+        verify(1, getRequestedFor(urlEqualTo("/productInfoService/product/names?productCode=3852")));
+    }
+
+    @Test
+    void getOrdersByUserId_whenCompleted_recordStageLatencies() {
+        // given
+        var userId = "user1";
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "John Success", "123456789")));
+
+        // when
+        var userOrdersFlux = userOrdersService.getOrdersByUserId(userId);
+
+        // then
+        StepVerifier.create(userOrdersFlux)
+                .expectNextCount(2)
+                .verifyComplete();
+
+        assertEquals(1, stageTimer("user.lookup", "success").count());
+        assertEquals(1, stageTimer("order.search.total", "success").count());
+        assertEquals(2, stageTimer("product.lookup", "success").count());
+        assertEquals(1, stageTimer("pipeline.first", "success").count());
+        assertEquals(1, stageTimer("pipeline.last", "success").count());
+    }
+
+    @Test
+    void getOrdersByUserId_whenConcurrentCallsForSameUser_shareOnePipeline() {
+        // given
+        var userId = "user1";
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "John Success", "123456789")));
+
+        // when
+        var userOrdersFlux = Flux.merge(
+                this.userOrdersService.getOrdersByUserId(userId),
+                this.userOrdersService.getOrdersByUserId(userId));
+
+        // then
+        StepVerifier.create(userOrdersFlux)
+                .expectNextCount(4)
+                .verifyComplete();
+
+        verify(1, getRequestedFor(urlEqualTo("/orderSearchService/order/phone?phoneNumber=123456789")));
+    }
+
+    @Test
+    void getOrdersByUserId_whenOneOfSharingSubscribersCancels_othersStillGetAllUserOrders() {
+        // given
+        var userId = "user1";
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "John Success", "123456789")));
+
+        // when
+        var userOrdersFlux = Flux.merge(
+                this.userOrdersService.getOrdersByUserId(userId).take(1),
+                this.userOrdersService.getOrdersByUserId(userId));
+
+        // then
+        StepVerifier.create(userOrdersFlux)
+                .expectNextCount(3)
+                .verifyComplete();
+    }
+
+    @Test
+    void getOrdersByUserId_whenSharedPipelineCompleted_nextCallStartsNewOne() {
+        // given
+        var userId = "user1";
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "John Success", "123456789")));
+
+        // when
+        this.userOrdersService.getOrdersByUserId(userId).blockLast();
+        this.userOrdersService.getOrdersByUserId(userId).blockLast();
+
+        // then
+        verify(2, getRequestedFor(urlEqualTo("/orderSearchService/order/phone?phoneNumber=123456789")));
+    }
+
+    @Test
+    void getOrdersByUserId_whenCallerCancels_cancelOrderSearchAndProductLookupsInFlight() {
+        // given
+        var userId = "user5";
+        // first two orders arrive right away, the other two a second later;
+        // product lookup of the second order (7894) takes 6 seconds
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "Anna Cancel", "555666777")));
+
+        // when
+        var userOrdersFlux = this.userOrdersService.getOrdersByUserId(userId).take(1);
+
+        // then
+        StepVerifier.create(userOrdersFlux)
+                .expectNextCount(1)
+                .verifyComplete();
+
+        assertEquals(1, cancellations("response"));
+        assertEquals(1, cancellations("pipeline"));
+        assertEquals(1, cancellations("order.search"));
+        assertEquals(1, cancellations("product.lookup"));
+    }
+
+    @Test
+    void getCachedOrdersByUserId_whenRequestedAgainWithinFreshTtl_returnCachedUserOrdersWithoutUpstreamCalls() {
+        // given
+        var userId = "user1";
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "John Success", "123456789")));
+        this.userOrdersService.setResponseCacheEnabled(true);
+        this.userOrdersService.afterPropertiesSet();
+
+        // when
+        var first = this.userOrdersService.getCachedOrdersByUserId(userId, null);
+        var firstUserOrders = first.userOrders().collectList().block();
+        var second = this.userOrdersService.getCachedOrdersByUserId(userId, null);
+
+        // then
+        assertEquals(StaleWhileRevalidateCache.Status.MISS, first.cacheStatus());
+        assertEquals(StaleWhileRevalidateCache.Status.HIT, second.cacheStatus());
+        StepVerifier.create(second.userOrders())
+                .expectNextSequence(firstUserOrders)
+                .verifyComplete();
+
+        verify(1, getRequestedFor(urlEqualTo("/orderSearchService/order/phone?phoneNumber=123456789")));
+    }
+
+    @Test
+    void getCachedOrdersByUserId_whenCachedEntryIsStale_returnItAndRefreshInBackground() throws Exception {
+        // given
+        var userId = "user1";
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "John Success", "123456789")));
+        this.userOrdersService.setResponseCacheEnabled(true);
+        this.userOrdersService.setResponseCacheFreshTtl(Duration.ZERO);
+        this.userOrdersService.afterPropertiesSet();
+        this.userOrdersService.getCachedOrdersByUserId(userId, null).userOrders().blockLast();
+
+        // when
+        var stale = this.userOrdersService.getCachedOrdersByUserId(userId, null);
+
+        // then
+        assertEquals(StaleWhileRevalidateCache.Status.STALE, stale.cacheStatus());
+        StepVerifier.create(stale.userOrders())
+                .expectNextCount(2)
+                .verifyComplete();
+
+        var refreshes = this.meterRegistry.get("response.cache.refreshes").tag("outcome", "success").counter();
+        for (int i = 0; i < 50 && refreshes.count() < 1; i++) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, refreshes.count());
+        verify(2, getRequestedFor(urlEqualTo("/orderSearchService/order/phone?phoneNumber=123456789")));
+    }
+
+    @Test
+    void getCachedOrdersByUserId_whenProductLookupsRejected_doNotCacheUserOrders() {
+        // given
+        var userId = "user1";
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "John Success", "123456789")));
+        // what ProductInfoServiceClient returns while its circuit is open
+        var rejectingProductInfoServiceClient = mock(ProductInfoServiceClient.class);
+        when(rejectingProductInfoServiceClient.getBestProductByCode(anyString(), any(Scheduler.class)))
+                .thenReturn(DegradationUtil.degraded(ProductRanking.NO_PRODUCT));
+        var userOrdersService = new UserOrdersService(
+                this.userRepositoryMock,
+                this.orderSearchServiceClient,
+                rejectingProductInfoServiceClient,
+                this.meterRegistry);
+        userOrdersService.setResponseCacheEnabled(true);
+        userOrdersService.afterPropertiesSet();
+
+        // when
+        var first = userOrdersService.getCachedOrdersByUserId(userId, null);
+        StepVerifier.create(first.userOrders())
+                .expectNextCount(2)
+                .verifyComplete();
+        var second = userOrdersService.getCachedOrdersByUserId(userId, null);
+
+        // then
+        assertEquals(StaleWhileRevalidateCache.Status.MISS, first.cacheStatus());
+        assertEquals(StaleWhileRevalidateCache.Status.MISS, second.cacheStatus());
+
+        userOrdersService.destroy();
+    }
+
+    private double cancellations(String stage) {
+        return this.meterRegistry.get(UserOrdersService.CANCELLATION_COUNTER)
+                .tag("stage", stage)
+                .counter()
+                .count();
+    }
+
+    private Timer stageTimer(String stage, String outcome) {
+        return this.meterRegistry.get(STAGE_TIMER)
+                .tag("stage", stage)
+                .tag("outcome", outcome)
+                .timer();
+    }
+}
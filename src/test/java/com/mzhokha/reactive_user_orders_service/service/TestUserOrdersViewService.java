@@ -0,0 +1,212 @@
+package com.mzhokha.reactive_user_orders_service.service;
+
+import com.mongodb.client.result.DeleteResult;
+import com.mzhokha.reactive_user_orders_service.model.UserOrderView;
+import com.mzhokha.reactive_user_orders_service.model.UserOrderViewRepository;
+import com.mzhokha.reactive_user_orders_service.response.UserOrder;
+import com.mzhokha.reactive_user_orders_service.util.DegradationUtil;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TestUserOrdersViewService {
+
+    private final UserOrderViewRepository userOrderViewRepositoryMock = mock(UserOrderViewRepository.class);
+
+    private final ReactiveMongoTemplate mongoTemplateMock = mock(ReactiveMongoTemplate.class);
+
+    private final UserOrdersService userOrdersServiceMock = mock(UserOrdersService.class);
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private UserOrdersViewService userOrdersViewService;
+
+    private final List<UserOrder> userOrders = List.of(
+            new UserOrder("Order_0", "John Success", "123456789", "3852", "Milk", "111"),
+            new UserOrder("Order_1", "John Success", "123456789", "5256", "Bread", "222"));
+
+    @BeforeEach
+    void setUp() {
+        var indexOpsMock = mock(ReactiveIndexOperations.class);
+        when(indexOpsMock.ensureIndex(any())).thenReturn(Mono.just("index"));
+        when(this.mongoTemplateMock.indexOps(UserOrderView.class)).thenReturn(indexOpsMock);
+        when(this.mongoTemplateMock.remove(any(Query.class), eq(UserOrderView.class)))
+                .thenReturn(Mono.just(DeleteResult.acknowledged(0)));
+        when(this.userOrderViewRepositoryMock.saveAll(anyIterable()))
+                .thenAnswer(invocation -> Flux.fromIterable(invocation.<Iterable<UserOrderView>>getArgument(0)));
+
+        this.meterRegistry = new SimpleMeterRegistry();
+        this.userOrdersViewService = new UserOrdersViewService(
+                this.userOrderViewRepositoryMock,
+                this.mongoTemplateMock,
+                this.userOrdersServiceMock,
+                this.meterRegistry);
+        this.userOrdersViewService.afterPropertiesSet();
+    }
+
+    @Test
+    void getOrdersByUserId_whenViewIsFresh_returnUserOrdersFromViewWithoutComputing() {
+        // given
+        var userId = "user1";
+        when(this.userOrderViewRepositoryMock.findByUserId(userId))
+                .thenReturn(views(userId, Instant.now()));
+
+        // when
+        var userOrdersFlux = this.userOrdersViewService.getOrdersByUserId(userId);
+
+        // then
+        StepVerifier.create(userOrdersFlux)
+                .expectNextSequence(this.userOrders)
+                .verifyComplete();
+
+        verify(this.userOrdersServiceMock, never()).getOrdersByUserId(userId);
+        assertEquals(1, reads("hit"));
+    }
+
+    @Test
+    void getOrdersByUserId_whenUserMissingInView_returnComputedUserOrdersAndWriteThem() {
+        // given
+        var userId = "user1";
+        when(this.userOrderViewRepositoryMock.findByUserId(userId)).thenReturn(Flux.empty());
+        when(this.userOrdersServiceMock.getOrdersByUserId(userId)).thenReturn(Flux.fromIterable(this.userOrders));
+
+        // when
+        var userOrdersFlux = this.userOrdersViewService.getOrdersByUserId(userId);
+
+        // then
+        StepVerifier.create(userOrdersFlux)
+                .expectNextSequence(this.userOrders)
+                .verifyComplete();
+
+        ArgumentCaptor<Iterable<UserOrderView>> saved = ArgumentCaptor.forClass(Iterable.class);
+        verify(this.userOrderViewRepositoryMock).saveAll(saved.capture());
+        var savedUserOrders = new ArrayList<UserOrder>();
+        saved.getValue().forEach(view -> {
+            assertEquals(userId, view.userId());
+            savedUserOrders.add(view.toUserOrder());
+        });
+        assertEquals(this.userOrders, savedUserOrders);
+        verify(this.mongoTemplateMock).remove(any(Query.class), eq(UserOrderView.class));
+        assertEquals(1, reads("miss"));
+    }
+
+    @Test
+    void getOrdersByUserId_whenViewIsStale_returnUserOrdersFromViewAndRecomputeInBackground() {
+        // given
+        var userId = "user1";
+        this.userOrdersViewService.setFreshness(Duration.ofMinutes(1));
+        when(this.userOrderViewRepositoryMock.findByUserId(userId))
+                .thenReturn(views(userId, Instant.now().minus(Duration.ofMinutes(2))));
+        when(this.userOrdersServiceMock.getOrdersByUserId(userId)).thenReturn(Flux.fromIterable(this.userOrders));
+
+        // when
+        var userOrdersFlux = this.userOrdersViewService.getOrdersByUserId(userId);
+
+        // then
+        StepVerifier.create(userOrdersFlux)
+                .expectNextSequence(this.userOrders)
+                .verifyComplete();
+
+        verify(this.userOrderViewRepositoryMock, timeout(5000)).saveAll(anyIterable());
+        assertEquals(1, reads("stale"));
+    }
+
+    @Test
+    void refresh_whenOrderSearchRejected_keepUserOrdersInView() {
+        // given
+        var userId = "user1";
+        // what UserOrdersService returns while order search is rejected by the circuit breaker
+        when(this.userOrdersServiceMock.getOrdersByUserId(userId)).thenReturn(DegradationUtil.degradedEmpty());
+
+        // when
+        var refresh = this.userOrdersViewService.refresh(userId);
+
+        // then
+        StepVerifier.create(refresh)
+                .verifyComplete();
+
+        verify(this.userOrderViewRepositoryMock, never()).saveAll(anyIterable());
+        verify(this.mongoTemplateMock, never()).remove(any(Query.class), eq(UserOrderView.class));
+        assertEquals(1, refreshes("skipped"));
+    }
+
+    @Test
+    void refresh_whenProductsOfOrderFellBack_keepUserOrdersInView() {
+        // given
+        var userId = "user1";
+        when(this.userOrdersServiceMock.getOrdersByUserId(userId))
+                .thenReturn(Flux.fromIterable(this.userOrders).concatWith(DegradationUtil.degradedEmpty()));
+
+        // when
+        var refresh = this.userOrdersViewService.refresh(userId);
+
+        // then
+        StepVerifier.create(refresh)
+                .verifyComplete();
+
+        verify(this.userOrderViewRepositoryMock, never()).saveAll(anyIterable());
+        assertEquals(1, refreshes("skipped"));
+    }
+
+    @Test
+    void refresh_whenUserHasNoOrdersAnymore_removeUserOrdersFromView() {
+        // given
+        var userId = "user1";
+        when(this.userOrdersServiceMock.getOrdersByUserId(userId)).thenReturn(Flux.empty());
+        var removeQuery = ArgumentCaptor.forClass(Query.class);
+
+        // when
+        var refresh = this.userOrdersViewService.refresh(userId);
+
+        // then
+        StepVerifier.create(refresh)
+                .verifyComplete();
+
+        verify(this.userOrderViewRepositoryMock, never()).saveAll(anyIterable());
+        verify(this.mongoTemplateMock).remove(removeQuery.capture(), eq(UserOrderView.class));
+        assertEquals(userId, removeQuery.getValue().getQueryObject().get("userId"));
+        assertEquals(1, removeQuery.getValue().getQueryObject().size());
+        assertEquals(1, refreshes("success"));
+    }
+
+    private Flux<UserOrderView> views(String userId, Instant refreshedAt) {
+        return Flux.fromIterable(this.userOrders)
+                .map(userOrder -> UserOrderView.of(userId, userOrder, refreshedAt));
+    }
+
+    private double reads(String result) {
+        return this.meterRegistry.get(UserOrdersViewService.READ_COUNTER)
+                .tag("result", result)
+                .counter()
+                .count();
+    }
+
+    private double refreshes(String outcome) {
+        return this.meterRegistry.get(UserOrdersViewService.REFRESH_COUNTER)
+                .tag("outcome", outcome)
+                .counter()
+                .count();
+    }
+}
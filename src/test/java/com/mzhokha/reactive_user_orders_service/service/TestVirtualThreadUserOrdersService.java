@@ -0,0 +1,150 @@
+package com.mzhokha.reactive_user_orders_service.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.junit5.WireMockRuntimeInfo;
+import com.github.tomakehurst.wiremock.junit5.WireMockTest;
+import com.mzhokha.reactive_user_orders_service.external.client.BlockingOrderSearchServiceClient;
+import com.mzhokha.reactive_user_orders_service.external.client.BlockingProductInfoServiceClient;
+import com.mzhokha.reactive_user_orders_service.external.client.OrderSearchServiceClient;
+import com.mzhokha.reactive_user_orders_service.external.client.ProductInfoServiceClient;
+import com.mzhokha.reactive_user_orders_service.model.User;
+import com.mzhokha.reactive_user_orders_service.model.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.verify;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+@WireMockTest
+class TestVirtualThreadUserOrdersService {
+
+    private final UserRepository userRepositoryMock = mock(UserRepository.class);
+
+    private BlockingProductInfoServiceClient productInfoServiceClient;
+
+    private VirtualThreadUserOrdersService virtualThreadUserOrdersService;
+
+    private UserOrdersService userOrdersService;
+
+    @BeforeEach
+    void setUp(WireMockRuntimeInfo wmRuntimeInfo) throws Exception {
+        String wireMockBaseUrl = wmRuntimeInfo.getHttpBaseUrl();
+        var objectMapper = new ObjectMapper();
+
+        var orderSearchServiceClient = new BlockingOrderSearchServiceClient(objectMapper);
+        orderSearchServiceClient.setOrderSearchServiceBaseUrl(wireMockBaseUrl);
+        orderSearchServiceClient.afterPropertiesSet();
+
+        this.productInfoServiceClient = new BlockingProductInfoServiceClient(objectMapper);
+        this.productInfoServiceClient.setProductInfoServiceBaseUrl(wireMockBaseUrl);
+        this.productInfoServiceClient.afterPropertiesSet();
+
+        this.virtualThreadUserOrdersService = new VirtualThreadUserOrdersService(
+                this.userRepositoryMock,
+                orderSearchServiceClient,
+                this.productInfoServiceClient,
+                new SimpleMeterRegistry());
+
+        var reactiveOrderSearchServiceClient = new OrderSearchServiceClient();
+        reactiveOrderSearchServiceClient.setOrderSearchServiceBaseUrl(wireMockBaseUrl);
+        reactiveOrderSearchServiceClient.afterPropertiesSet();
+
+        var reactiveProductInfoServiceClient = new ProductInfoServiceClient();
+        reactiveProductInfoServiceClient.setProductInfoServiceBaseUrl(wireMockBaseUrl);
+        reactiveProductInfoServiceClient.afterPropertiesSet();
+
+        this.userOrdersService = new UserOrdersService(
+                this.userRepositoryMock,
+                reactiveOrderSearchServiceClient,
+                reactiveProductInfoServiceClient,
+                new SimpleMeterRegistry());
+    }
+
+    @AfterEach
+    void tearDown() {
+        this.productInfoServiceClient.destroy();
+    }
+
+    @Test
+    void getOrdersByUserId_whenEverythingPresent_returnSameUserOrdersAsReactiveMode() {
+        // given
+        var userId = "user1";
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "John Success", "123456789")));
+        var reactiveUserOrders = this.userOrdersService.getOrdersByUserId(userId, 2)
+                .collectSortedList((o1, o2) -> o1.orderNumber().compareTo(o2.orderNumber()))
+                .block();
+
+        // when
+        var userOrdersFlux = this.virtualThreadUserOrdersService.getOrdersByUserId(userId, 2)
+                .sort((o1, o2) -> o1.orderNumber().compareTo(o2.orderNumber()));
+
+        // then
+        StepVerifier.create(userOrdersFlux)
+                .expectNextSequence(reactiveUserOrders)
+                .verifyComplete();
+    }
+
+    @Test
+    void getOrdersByUserId_whenProductInfoRespondsWithError_returnUserOrderWithoutProductInfo() {
+        // given
+        var userId = "user3";
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "David Error", "111111111")));
+
+        // when
+        var userOrdersFlux = this.virtualThreadUserOrdersService.getOrdersByUserId(userId, null);
+
+        // then
+        StepVerifier.create(userOrdersFlux)
+                .recordWith(ArrayList::new)
+                .expectNextCount(2)
+                .consumeRecordedWith(userOrders -> assertEquals(1,
+                        userOrders.stream().filter(userOrder -> userOrder.productId() == null).count()))
+                .verifyComplete();
+    }
+
+    @Test
+    void getOrdersByUserId_whenClientRequestedOneUserOrder_lookUpProductsOfOneOrderOnly() {
+        // given
+        var userId = "user3";
+        when(this.userRepositoryMock.findNameAndPhoneById(userId))
+                .thenReturn(Mono.just(new User(userId, "David Error", "111111111")));
+
+        // when
+        var userOrdersFlux = this.virtualThreadUserOrdersService.getOrdersByUserId(userId, null);
+
+        // then
+        StepVerifier.create(userOrdersFlux, 1)
+                .expectNextCount(1)
+                .expectNoEvent(Duration.ofMillis(300))
+                .then(() -> verify(1, getRequestedFor(urlPathEqualTo("/productInfoService/product/names"))))
+                .thenRequest(1)
+                .expectNextCount(1)
+                .verifyComplete();
+    }
+
+    @Test
+    void getOrdersByUserId_whenUserNotFound_complete() {
+        // given
+        when(this.userRepositoryMock.findNameAndPhoneById("unknown")).thenReturn(Mono.empty());
+
+        // when
+        var userOrdersFlux = this.virtualThreadUserOrdersService.getOrdersByUserId("unknown", null);
+
+        // then
+        StepVerifier.create(userOrdersFlux)
+                .verifyComplete();
+    }
+}
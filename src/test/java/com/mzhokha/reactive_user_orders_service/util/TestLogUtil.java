@@ -0,0 +1,106 @@
+package com.mzhokha.reactive_user_orders_service.util;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+import org.slf4j.event.Level;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.util.context.Context;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.mzhokha.reactive_user_orders_service.util.LogUtil.CONTEXT_REQUEST_ID;
+import static com.mzhokha.reactive_user_orders_service.util.LogUtil.REQUEST_ID;
+import static com.mzhokha.reactive_user_orders_service.util.LogUtil.logOnError;
+import static com.mzhokha.reactive_user_orders_service.util.LogUtil.logOnNext;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestLogUtil {
+
+    private static final Logger log = LoggerFactory.getLogger(TestLogUtil.class);
+
+    private final List<String> requestIdsInMdc = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        ((ch.qos.logback.classic.Logger) log).setLevel(ch.qos.logback.classic.Level.INFO);
+    }
+
+    @AfterEach
+    void tearDown() {
+        MDC.remove(REQUEST_ID);
+    }
+
+    @Test
+    void logOnNext_whenRequestIdInContext_requestIdIsInMdcOnlyDuringStatement() {
+        // given
+        var orders = Flux.just("Order_0", "Order_1")
+                .doOnEach(logOnNext(log, Level.INFO, order -> this.requestIdsInMdc.add(MDC.get(REQUEST_ID))))
+                .contextWrite(Context.of(CONTEXT_REQUEST_ID, "777"));
+
+        // when
+        StepVerifier.create(orders)
+                .expectNext("Order_0", "Order_1")
+                .verifyComplete();
+
+        // then
+        assertEquals(List.of("777", "777"), this.requestIdsInMdc);
+        assertNull(MDC.get(REQUEST_ID));
+    }
+
+    @Test
+    void logOnNext_whenLevelDisabled_statementIsNotRun() {
+        // given
+        var orders = Flux.just("Order_0")
+                .doOnEach(logOnNext(log, Level.DEBUG, order -> this.requestIdsInMdc.add(MDC.get(REQUEST_ID))))
+                .contextWrite(Context.of(CONTEXT_REQUEST_ID, "777"));
+
+        // when
+        StepVerifier.create(orders)
+                .expectNext("Order_0")
+                .verifyComplete();
+
+        // then
+        assertTrue(this.requestIdsInMdc.isEmpty());
+    }
+
+    @Test
+    void logOnError_whenThreadHasOtherRequestIdInMdc_itIsRestoredAfterStatement() {
+        // given
+        MDC.put(REQUEST_ID, "other");
+        var orders = Flux.<String>error(new IllegalStateException("boom"))
+                .doOnEach(logOnError(log, Level.ERROR, throwable -> this.requestIdsInMdc.add(MDC.get(REQUEST_ID))))
+                .contextWrite(Context.of(CONTEXT_REQUEST_ID, "777"));
+
+        // when
+        StepVerifier.create(orders)
+                .verifyError(IllegalStateException.class);
+
+        // then
+        assertEquals(List.of("777"), this.requestIdsInMdc);
+        assertEquals("other", MDC.get(REQUEST_ID));
+    }
+
+    @Test
+    void logOnNext_whenNoRequestIdInContext_statementRunsWithoutMdc() {
+        // given
+        var orders = Flux.just("Order_0")
+                .doOnEach(logOnNext(log, Level.INFO, order -> this.requestIdsInMdc.add(MDC.get(REQUEST_ID))));
+
+        // when
+        StepVerifier.create(orders)
+                .expectNext("Order_0")
+                .verifyComplete();
+
+        // then
+        assertEquals(1, this.requestIdsInMdc.size());
+        assertNull(this.requestIdsInMdc.get(0));
+    }
+}
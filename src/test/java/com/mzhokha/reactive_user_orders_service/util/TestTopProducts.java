@@ -0,0 +1,63 @@
+package com.mzhokha.reactive_user_orders_service.util;
+
+import com.mzhokha.reactive_user_orders_service.external.model.Product;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TestTopProducts {
+
+    @Test
+    void of_whenMoreProductsThanK_returnKHighestScoresInDescendingOrder() {
+        // given
+        var products = List.of(
+                product("1", 10.5),
+                product("2", 99.0),
+                product("3", 3.2),
+                product("4", 47.1),
+                product("5", 64.8),
+                product("6", 12.0));
+
+        // when
+        var topProducts = TopProducts.of(products, 3);
+
+        // then
+        assertEquals(List.of("2", "5", "4"), topProducts.stream().map(Product::productId).toList());
+    }
+
+    @Test
+    void of_whenFewerProductsThanK_returnAllInDescendingOrder() {
+        // given
+        var products = List.of(product("1", 1), product("2", 3), product("3", 2));
+
+        // when
+        var topProducts = TopProducts.of(products, 5);
+
+        // then
+        assertEquals(List.of("2", "3", "1"), topProducts.stream().map(Product::productId).toList());
+    }
+
+    @Test
+    void of_whenKIsOne_returnSameProductAsHigherScoreReducer() {
+        // given
+        var products = List.of(product("1", 5), product("2", 7), product("3", 7), product("4", 1));
+
+        // when
+        var topProducts = TopProducts.of(products, 1);
+
+        // then
+        assertEquals(List.of(ProductRanking.best(products)), topProducts);
+    }
+
+    @Test
+    void of_whenNoProducts_returnEmptyList() {
+        assertTrue(TopProducts.of(List.of(), 3).isEmpty());
+    }
+
+    private static Product product(String productId, double score) {
+        return new Product(productId, "3852", "Name_" + productId, score);
+    }
+}